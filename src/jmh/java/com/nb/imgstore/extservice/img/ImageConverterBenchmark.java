@@ -0,0 +1,66 @@
+package com.nb.imgstore.extservice.img;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Scaling the sample images, by converter engine: to the max dimension (upload) and to a thumbnail size.
+ * <p>
+ * The <code>imagemagick</code> engine needs the <code>MAGICK</code> environment variable, skip it otherwise by
+ * <code>-p engine=java2d</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ImageConverterBenchmark {
+	private static final int MAX_DIMENSION = 5000;
+	private static final int THUMBNAIL_SIZE = 128;
+
+	@Param({ "java2d", "imagemagick" })
+	private String engine;
+
+	@Param({ "360x288.png", "620x413.jpg", "6010x4012.jpg" })
+	private String image;
+
+	private ImageConverter imageConverter;
+	private byte[] content;
+
+	@Setup
+	public void setUp() throws IOException {
+		imageConverter = "java2d".equals(engine)
+				? new ImageConverterJava2D(MAX_DIMENSION, 0.9f)
+				: new ImageConverterImageMagick(MAX_DIMENSION, System.getenv().getOrDefault("MAGICK", ""), 0, 100,
+						Duration.ofSeconds(30), Duration.ofSeconds(60), new SimpleMeterRegistry());
+		content = new ClassPathResource("images/" + image).getContentAsByteArray();
+	}
+
+	@Benchmark
+	public byte[] scaleToMaxDimension() {
+		return imageConverter.scale(content);
+	}
+
+	@Benchmark
+	public byte[] scaleToThumbnail() {
+		return imageConverter.scale(content, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+	}
+
+}
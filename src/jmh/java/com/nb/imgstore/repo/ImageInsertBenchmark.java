@@ -0,0 +1,101 @@
+package com.nb.imgstore.repo;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nb.imgstore.model.Image;
+
+/**
+ * Saving a batch of images in one transaction (like an upload), in rows per second, by id generation: the pooled
+ * sequence (batched inserts) or the IDENTITY column used before (an insert per row).
+ * <p>
+ * Runs against an in-memory H2 database by default, which has no network round-trips. Another database can be given
+ * by the <code>url</code>, <code>user</code> and <code>password</code> parameters, e.g.
+ * <code>-p url=jdbc:postgresql://localhost:5432/bench?reWriteBatchedInserts=true -p user=postgres -p password=123</code>,
+ * its <code>images</code> table is recreated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ImageInsertBenchmark {
+	private static final int ROWS = 500;
+
+	@Param({ "sequence", "identity" })
+	private String ids;
+
+	@Param({ "jdbc:h2:mem:bench" })
+	private String url;
+
+	@Param({ "sa" })
+	private String user;
+
+	@Param({ "" })
+	private String password;
+
+	private SessionFactory sessionFactory;
+	private long count;
+
+	@Setup
+	public void setUp() {
+		// the same batching as in application.properties
+		StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+				.applySetting(AvailableSettings.JAKARTA_JDBC_URL, url)
+				.applySetting(AvailableSettings.JAKARTA_JDBC_USER, user)
+				.applySetting(AvailableSettings.JAKARTA_JDBC_PASSWORD, password)
+				.applySetting(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+				.applySetting(AvailableSettings.STATEMENT_BATCH_SIZE, 50)
+				.applySetting(AvailableSettings.ORDER_INSERTS, true)
+				.build();
+		MetadataSources sources = new MetadataSources(registry).addAnnotatedClass(Image.class);
+		if ("identity".equals(ids)) {
+			sources.addResource("META-INF/identity-orm.xml");
+		}
+		sessionFactory = sources.buildMetadata().buildSessionFactory();
+	}
+
+	@TearDown
+	public void tearDown() {
+		sessionFactory.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void saveAll() {
+		sessionFactory.inTransaction(session -> {
+			for (int i = 0; i < ROWS; i++) {
+				session.persist(Image.builder()
+						.name("img" + count++ + ".jpg")
+						.type("image/jpeg")
+						.size(100_000L)
+						.createdAt(Instant.now())
+						.contentHash("abcd")
+						.originalHash("abcd")
+						.blobKey("key")
+						.build());
+			}
+		});
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.nb.imgstore.service;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Encryption and decryption of whole contents, by algorithm and payload size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionBenchmark {
+
+	@Param({ "aes", "aes-gcm" })
+	private String algorithm;
+
+	@Param({ "1024", "65536", "1048576", "10485760" })
+	private int size;
+
+	private EncryptionService encryptionService;
+	private byte[] content;
+	private byte[] encryptedContent;
+
+	@Setup
+	public void setUp() throws IOException {
+		ClassPathResource key = new ClassPathResource("cipher/secret.key");
+		encryptionService = "aes".equals(algorithm) ? new EncryptionServiceAes(key) : new EncryptionServiceAesGcm(key);
+		content = new byte[size];
+		new Random(42).nextBytes(content);
+		encryptedContent = encryptionService.encrypt(content);
+	}
+
+	@Benchmark
+	public byte[] encrypt() {
+		return encryptionService.encrypt(content);
+	}
+
+	@Benchmark
+	public byte[] decrypt() {
+		return encryptionService.decrypt(encryptedContent);
+	}
+
+}
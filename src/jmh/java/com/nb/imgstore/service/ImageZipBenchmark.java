@@ -0,0 +1,145 @@
+package com.nb.imgstore.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.function.IOConsumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import com.nb.imgstore.extservice.blob.BlobStore;
+import com.nb.imgstore.model.Image;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Zipping the whole library, by number of images, compression policy (<code>AUTO</code> stores the JPEG entries) and
+ * decryption parallelism.
+ * <p>
+ * Every image is the 620x413 sample encrypted with AES-GCM, kept in an in-memory blob store, so the benchmark measures
+ * decryption and compression without disk I/O. The zip goes to a discarding stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ImageZipBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	private int imageCount;
+
+	@Param({ "AUTO", "DEFLATED" })
+	private ImageZipService.Compression compression;
+
+	/**
+	 * Threads decrypting ahead of the zip writer (0: number of CPU cores)
+	 */
+	@Param({ "1", "0" })
+	private int parallelism;
+
+	private ReadAheadExecutor readAheadExecutor;
+
+	private ImageZipService imageZipService;
+	private List<Image> images;
+
+	@Setup
+	public void setUp() throws IOException {
+		EncryptionService encryptionService = new EncryptionServiceAesGcm(new ClassPathResource("cipher/secret.key"));
+		BlobStore blobStore = new InMemoryBlobStore();
+		byte[] content = new ClassPathResource("images/620x413.jpg").getContentAsByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		images = new ArrayList<>();
+		for (int i = 0; i < imageCount; i++) {
+			images.add(Image.builder()
+					.id((long) i)
+					.name(UUID.randomUUID() + ".jpg")
+					.size((long) content.length)
+					.blobKey(blobStore.put(encryptionService.encrypt(content)))
+					.build());
+		}
+		readAheadExecutor = new ReadAheadExecutor(parallelism, 16, DataSize.ofMegabytes(64));
+		imageZipService = new ImageZipService(encryptionService, blobStore, new PipelineMetrics(new SimpleMeterRegistry()),
+				readAheadExecutor);
+		ReflectionTestUtils.setField(imageZipService, "compression", compression);
+	}
+
+	@TearDown
+	public void tearDown() {
+		readAheadExecutor.shutdown();
+	}
+
+	@Benchmark
+	public void zipAll() {
+		imageZipService.zipAll(images, OutputStream.nullOutputStream());
+	}
+
+	private static class InMemoryBlobStore implements BlobStore {
+		private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+
+		@Override
+		public String put(byte[] content) {
+			String key = UUID.randomUUID().toString();
+			blobs.put(key, content);
+			return key;
+		}
+
+		@Override
+		public String put(IOConsumer<OutputStream> writer) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try {
+				writer.accept(out);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to write blob", e);
+			}
+			return put(out.toByteArray());
+		}
+
+		@Override
+		public byte[] get(String key) {
+			return blobs.get(key);
+		}
+
+		@Override
+		public InputStream open(String key) {
+			return new ByteArrayInputStream(get(key));
+		}
+
+		@Override
+		public SeekableByteChannel openChannel(String key) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void delete(String key) {
+			blobs.remove(key);
+		}
+	}
+
+}
@@ -1,7 +1,26 @@
 package com.nb.imgstore.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+import org.springdoc.core.annotations.ParameterObject;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.web.PageableDefault;
+import org.springframework.data.web.PagedModel;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -9,21 +28,36 @@ import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.nb.imgstore.exception.dto.ApiError;
+import com.nb.imgstore.model.ExportStatus;
+import com.nb.imgstore.model.ImageFilter;
+import com.nb.imgstore.model.ImageMetadata;
+import com.nb.imgstore.model.ThumbnailStatus;
+import com.nb.imgstore.service.ExportService;
 import com.nb.imgstore.service.ImageStoreService;
+import com.nb.imgstore.service.ThumbnailService;
+import com.nb.imgstore.util.StageTrace;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Positive;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -33,7 +67,15 @@ import lombok.extern.slf4j.Slf4j;
 @RequestMapping("/api")
 @RequiredArgsConstructor
 public class ImageController {
+	// Tomcat sends a file set by these request attributes from the socket, without copying it through the heap
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+	static final CacheControl IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
 	private final ImageStoreService imageService;
+	private final ThumbnailService thumbnailService;
+	private final ExportService exportService;
 
 	@Operation(summary = "Upload image(s)")
 	@ApiResponses(value = {
@@ -49,9 +91,13 @@ public class ImageController {
 		return imageService.upload(images);
 	}
 
-	@Operation(summary = "Download image by fileName")
+	@Operation(summary = "Download image by fileName", description = "Images are immutable, conditional requests (If-None-Match) are answered by their ETag. "
+			+ "Byte ranges (Range) are supported, they are served without decrypting the whole image. "
+			+ "Resized variants are requested by the w and/or h boundaries, keeping the ratio")
 	@ApiResponses(value = {
 			@ApiResponse(responseCode = "200", description = "Image downloaded successfully"),
+			@ApiResponse(responseCode = "206", description = "Image range(s) downloaded successfully"),
+			@ApiResponse(responseCode = "304", description = "Image not modified"),
 			@ApiResponse(responseCode = "400", description = "Invalid input provided", content = {
 					@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))
 			}),
@@ -60,23 +106,167 @@ public class ImageController {
 			})
 	})
 	@GetMapping(value = "/file/{fileName}", produces = { MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE })
-	public byte[] downloadByFileName(@PathVariable @NotEmpty String fileName) {
-		log.info("downloading image: {}", fileName);
-		return imageService.download(fileName);
+	public ResponseEntity<Resource> downloadByFileName(@PathVariable @NotEmpty String fileName,
+			@RequestParam(required = false) @Positive Integer w,
+			@RequestParam(required = false) @Positive Integer h,
+			WebRequest webRequest, HttpServletResponse response) {
+		log.info("downloading image: {} | w: {} | h: {}", fileName, w, h);
+		ImageMetadata metadata = imageService.findMetadata(fileName);
+		boolean variant = w != null || h != null;
+		String eTag = metadata.contentHash() == null ? null
+				: "\"" + metadata.contentHash() + (variant ? "-" + toString(w) + "x" + toString(h) : "") + "\"";
+		if (eTag != null && webRequest.checkNotModified(eTag)) {
+			log.debug("image not modified: {}", fileName);
+			// a 304 carries the same Cache-Control as the 200
+			response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE.getHeaderValue());
+			return null;
+		}
+		// ranges are cut out of the resource by the message converter
+		Resource image;
+		if (variant) {
+			image = new ByteArrayResource(imageService.downloadVariant(fileName, w, h));
+		} else if (webRequest.getHeader(HttpHeaders.RANGE) == null) {
+			image = new ByteArrayResource(imageService.download(fileName));
+		} else {
+			image = imageService.downloadResource(fileName);
+		}
+		return ResponseEntity.ok()
+				.contentType(MediaType.parseMediaType(metadata.type()))
+				.cacheControl(IMMUTABLE)
+				.eTag(eTag)
+				.body(image);
+	}
+
+	@Operation(summary = "Readiness of the thumbnails of an image", description = "Thumbnails are generated in the background after upload, "
+			+ "a ready thumbnail is downloaded by its size as both w and h")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "Thumbnail status returned successfully"),
+			@ApiResponse(responseCode = "404", description = "Image not found", content = {
+					@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))
+			})
+	})
+	@GetMapping(value = "/file/{fileName}/thumbnails", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ThumbnailStatus getThumbnailStatus(@PathVariable @NotEmpty String fileName) {
+		log.info("getting thumbnail status: {}", fileName);
+		return thumbnailService.getStatus(fileName);
 	}
 
-	@Operation(summary = "Download all images zipped")
+	@Operation(summary = "List image metadata page by page")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "Image metadata listed successfully") })
+	@GetMapping(value = "/files/meta", produces = MediaType.APPLICATION_JSON_VALUE)
+	public PagedModel<ImageMetadata> listMetadata(@ParameterObject @PageableDefault(size = 50, sort = "id") Pageable pageable) {
+		log.info("listing image metadata: {}", pageable);
+		return new PagedModel<>(imageService.findMetadata(pageable));
+	}
+
+	@Operation(summary = "Download all images zipped", description = "The stage timings are sent in the Server-Timing trailer, "
+			+ "since the zip is generated while it is streamed")
 	@ApiResponses(value = {
 			@ApiResponse(responseCode = "200", description = "Zip file downloaded successfully") })
 	@GetMapping(value = "/files", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-	public ResponseEntity<byte[]> downloadAll() {
+	public ResponseEntity<StreamingResponseBody> downloadAll(HttpServletResponse response) {
 		log.info("downloading all images zipped");
-		byte[] content = imageService.downloadAll();
-		return ResponseEntity.ok()
+		return zipResponse(response, "all.zip", imageService::downloadAll);
+	}
+
+	@Operation(summary = "Download the selected images zipped", description = "Images are selected by names, name prefix, "
+			+ "upload time range ([from, to)) and/or type, all the given criteria must match. "
+			+ "The stage timings are sent in the Server-Timing trailer")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "Zip file downloaded successfully"),
+			@ApiResponse(responseCode = "400", description = "Invalid input provided", content = {
+					@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))
+			})
+	})
+	@PostMapping(value = "/files/zip", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<StreamingResponseBody> downloadZip(@RequestBody @Valid ImageFilter filter, HttpServletResponse response) {
+		log.info("downloading images zipped: {}", filter);
+		return zipResponse(response, "images.zip", out -> imageService.downloadZip(filter, out));
+	}
+
+	@Operation(summary = "Export all images zipped in the background", description = "The export is reused until new images are uploaded, "
+			+ "its file can be downloaded when it is done")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "202", description = "Export started, or an export of the same images returned") })
+	@PostMapping(value = "/exports", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<ExportStatus> createExport() {
+		log.info("creating export");
+		ExportStatus status = exportService.createExport();
+		return ResponseEntity.accepted()
+				.location(URI.create("/api/exports/" + status.id()))
+				.body(status);
+	}
+
+	@Operation(summary = "Status of an export")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "Export status returned successfully"),
+			@ApiResponse(responseCode = "404", description = "Export not found", content = {
+					@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))
+			})
+	})
+	@GetMapping(value = "/exports/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ExportStatus getExportStatus(@PathVariable Long id) {
+		log.info("getting export status: {}", id);
+		return exportService.getStatus(id);
+	}
+
+	@Operation(summary = "Download the zip file of a done export", description = "The file is sent by sendfile where the server supports it")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "Zip file downloaded successfully"),
+			@ApiResponse(responseCode = "404", description = "Export not found or not done", content = {
+					@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))
+			})
+	})
+	@GetMapping(value = "/exports/{id}/file", produces = "application/zip")
+	public void downloadExport(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		log.info("downloading export: {}", id);
+		Path file = exportService.getFile(id);
+		long size = Files.size(file);
+		response.setContentType("application/zip");
+		response.setHeader("Content-Disposition", "attachment; filename=export-" + id + ".zip");
+		response.setContentLengthLong(size);
+		if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+			request.setAttribute(SENDFILE_START, 0L);
+			request.setAttribute(SENDFILE_END, size);
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file)) {
+			WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+			for (long position = 0; position < size;) {
+				position += channel.transferTo(position, size - position, out);
+			}
+		}
+	}
+
+	/**
+	 * The zip is written by another thread, after the headers are sent.<br>
+	 * The <code>Trailer</code> header is announced only if the trailer can be sent.
+	 */
+	private ResponseEntity<StreamingResponseBody> zipResponse(HttpServletResponse response, String fileName,
+			Consumer<OutputStream> zip) {
+		StageTrace trace = StageTrace.current();
+		ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
 				.contentType(MediaType.APPLICATION_OCTET_STREAM)
-				.header("Content-Disposition", "attachment; filename=all.zip")
-				.contentLength(content.length)
-				.body(content);
+				.header("Content-Disposition", "attachment; filename=" + fileName);
+		if (trace != null) {
+			try {
+				response.setTrailerFields(() -> Map.of(ServerTimingAdvice.SERVER_TIMING, trace.toHeaderValue()));
+				builder.header(HttpHeaders.TRAILER, ServerTimingAdvice.SERVER_TIMING);
+			} catch (IllegalStateException e) {
+				log.debug("trailers are not supported: {}", e.getMessage());
+			}
+		}
+		return builder.body(out -> StageTrace.callWith(trace, () -> {
+					zip.accept(out);
+					return null;
+				}));
+	}
+
+	private static String toString(Integer dimension) {
+		return dimension == null ? "" : dimension.toString();
 	}
 
 }
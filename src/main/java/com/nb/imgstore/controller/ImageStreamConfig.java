@@ -0,0 +1,31 @@
+package com.nb.imgstore.controller;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+
+import com.nb.imgstore.service.ImageStoreService;
+
+/**
+ * Registers the non-blocking image download ({@link ImageStreamServlet}) next to the dispatcher servlet, since it
+ * writes the response by the container's async I/O rather than by Spring MVC.
+ */
+@Configuration
+class ImageStreamConfig {
+
+	@Bean
+	ServletRegistrationBean<ImageStreamServlet> imageStreamServlet(ImageStoreService imageService,
+			@Qualifier("handlerExceptionResolver") HandlerExceptionResolver handlerExceptionResolver,
+			@Value("${app.stream.timeout:30m}") Duration timeout) {
+		ServletRegistrationBean<ImageStreamServlet> registration = new ServletRegistrationBean<>(
+				new ImageStreamServlet(imageService, handlerExceptionResolver, timeout), "/api/stream/file/*");
+		registration.setAsyncSupported(true);
+		return registration;
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.nb.imgstore.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+
+import com.nb.imgstore.exception.NotFoundException;
+import com.nb.imgstore.model.ImageMetadata;
+import com.nb.imgstore.service.ImageStoreService;
+import com.nb.imgstore.util.StageTrace;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Downloads images by non-blocking I/O, for slow clients.
+ * <p>
+ * The content is decrypted from the blob store chunk by chunk, only when the client is ready to receive more
+ * ({@link WriteListener}), so no thread is held while the client is slow. The number of concurrent downloads is not
+ * capped by the size of the server's thread pool.
+ * <p>
+ * Conditional requests (If-None-Match) are answered by the ETag like by the MVC download, byte ranges are not
+ * supported here. Errors are resolved like the exceptions of the controllers, so they have the same body.
+ */
+@Slf4j
+class ImageStreamServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	// a chunk of the AES-GCM content
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final transient ImageStoreService imageService;
+	private final transient HandlerExceptionResolver handlerExceptionResolver;
+	private final Duration timeout;
+
+	ImageStreamServlet(ImageStoreService imageService, HandlerExceptionResolver handlerExceptionResolver, Duration timeout) {
+		this.imageService = imageService;
+		this.handlerExceptionResolver = handlerExceptionResolver;
+		this.timeout = timeout;
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String fileName = request.getPathInfo() == null ? "" : request.getPathInfo().substring(1);
+		log.info("streaming image: {}", fileName);
+		ImageMetadata metadata;
+		InputStream content;
+		try {
+			metadata = imageService.findMetadata(fileName);
+			// a 304 carries the same Cache-Control as the 200
+			response.setHeader(HttpHeaders.CACHE_CONTROL, ImageController.IMMUTABLE.getHeaderValue());
+			String eTag = metadata.contentHash() == null ? null : "\"" + metadata.contentHash() + "\"";
+			if (eTag != null && new ServletWebRequest(request, response).checkNotModified(eTag)) {
+				log.debug("image not modified: {}", fileName);
+				return;
+			}
+			content = imageService.downloadResource(fileName).getInputStream();
+		} catch (NotFoundException e) {
+			response.reset();
+			handlerExceptionResolver.resolveException(request, response, null, e);
+			return;
+		}
+		StageTrace trace = StageTrace.current();
+		if (trace != null) {
+			response.setHeader(ServerTimingAdvice.SERVER_TIMING, trace.toHeaderValue());
+		}
+		response.setContentType(metadata.type());
+		if (metadata.size() != null) {
+			response.setContentLengthLong(metadata.size());
+		}
+		AsyncContext async = request.startAsync();
+		async.setTimeout(timeout.toMillis());
+		ContentWriter writer = new ContentWriter(fileName, content, response.getOutputStream(), async);
+		async.addListener(writer);
+		response.getOutputStream().setWriteListener(writer);
+	}
+
+	/**
+	 * Writes the content as long as the output is ready, the container calls it again when it is ready once more.
+	 */
+	private static class ContentWriter implements WriteListener, AsyncListener {
+		private final String fileName;
+		private final InputStream content;
+		private final ServletOutputStream out;
+		private final AsyncContext async;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+
+		ContentWriter(String fileName, InputStream content, ServletOutputStream out, AsyncContext async) {
+			this.fileName = fileName;
+			this.content = content;
+			this.out = out;
+			this.async = async;
+		}
+
+		@Override
+		public void onWritePossible() throws IOException {
+			while (out.isReady()) {
+				int read = content.read(buffer);
+				if (read < 0) {
+					log.debug("image streamed: {}", fileName);
+					close();
+					async.complete();
+					return;
+				}
+				out.write(buffer, 0, read);
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			log.warn("streaming image failed: {}", fileName, t);
+			close();
+			// the container may have completed it already
+			try {
+				async.complete();
+			} catch (IllegalStateException e) {
+				log.debug("streaming already completed: {}", fileName);
+			}
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			log.warn("streaming image timed out: {}", fileName);
+			close();
+			async.complete();
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			close();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			close();
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			// not restarted
+		}
+
+		private void close() {
+			try {
+				content.close();
+			} catch (IOException e) {
+				log.warn("unable to close image content: {}", fileName, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.nb.imgstore.controller;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import com.nb.imgstore.util.StageTrace;
+
+/**
+ * Adds the <code>Server-Timing</code> header to the responses, from the {@link StageTrace} of the request.
+ * <p>
+ * The header is set right before the body is written, when the request is already processed. Streamed bodies are
+ * written after the headers are sent, they report the trace in a trailer instead (see {@link ImageController}).
+ */
+@ControllerAdvice
+class ServerTimingAdvice implements ResponseBodyAdvice<Object> {
+	static final String SERVER_TIMING = "Server-Timing";
+
+	@Override
+	public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+		return true;
+	}
+
+	@Override
+	public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+			Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request,
+			ServerHttpResponse response) {
+		StageTrace trace = StageTrace.current();
+		if (trace != null) {
+			response.getHeaders().set(SERVER_TIMING, trace.toHeaderValue());
+		}
+		return body;
+	}
+
+}
@@ -0,0 +1,38 @@
+package com.nb.imgstore.controller;
+
+import java.io.IOException;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.nb.imgstore.util.StageTrace;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Binds a new {@link StageTrace} to every request, it is reported by {@link ServerTimingAdvice}.
+ * <p>
+ * It runs before the other filters of the application (e.g. {@link UploadAdmissionFilter}), so their time is traced
+ * too.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 10)
+class ServerTimingFilter extends OncePerRequestFilter {
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		StageTrace previous = StageTrace.bind(new StageTrace());
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			StageTrace.bind(previous);
+		}
+	}
+
+}
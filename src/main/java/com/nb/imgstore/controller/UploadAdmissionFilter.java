@@ -0,0 +1,65 @@
+package com.nb.imgstore.controller;
+
+import java.io.IOException;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+
+import com.nb.imgstore.exception.ServiceUnavailableException;
+import com.nb.imgstore.service.UploadAdmission;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Admits the upload requests by {@link UploadAdmission}, before their multipart content is read.
+ * <p>
+ * Rejected requests get a 503 response with <code>Retry-After</code>, without reading their payload. The rejection is
+ * resolved like the exceptions of the controllers, so the response has the same body as any other 503 of the API.
+ */
+@Slf4j
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+class UploadAdmissionFilter extends OncePerRequestFilter {
+	private static final String UPLOAD_PATH = "/api/files";
+
+	private final UploadAdmission uploadAdmission;
+	private final HandlerExceptionResolver handlerExceptionResolver;
+
+	UploadAdmissionFilter(UploadAdmission uploadAdmission,
+			@Qualifier("handlerExceptionResolver") HandlerExceptionResolver handlerExceptionResolver) {
+		this.uploadAdmission = uploadAdmission;
+		this.handlerExceptionResolver = handlerExceptionResolver;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !HttpMethod.POST.matches(request.getMethod())
+				|| !UPLOAD_PATH.equals(request.getRequestURI().substring(request.getContextPath().length()));
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		UploadAdmission.Permit permit;
+		try {
+			permit = uploadAdmission.admit(request.getContentLengthLong());
+		} catch (ServiceUnavailableException e) {
+			log.warn("upload rejected: {} | content length: {}", e.getMessage(), request.getContentLengthLong());
+			handlerExceptionResolver.resolveException(request, response, null, e);
+			return;
+		}
+		try (permit) {
+			filterChain.doFilter(request, response);
+		}
+	}
+
+}
@@ -2,6 +2,7 @@ package com.nb.imgstore.exception;
 
 import java.util.stream.Collectors;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.ObjectError;
@@ -44,6 +45,15 @@ public class GlobalExceptionHandler {
 		return buildResponseEntity(apiError);
 	}
 
+	@ExceptionHandler(ServiceUnavailableException.class)
+	ResponseEntity<ApiError> handleServiceUnavailableException(HttpServletRequest req, ServiceUnavailableException ex) {
+		ApiError apiError = new ApiError(req.getRequestURI(), HttpStatus.SERVICE_UNAVAILABLE, ex);
+		log.warn("Service unavailable response: {}", apiError);
+		return ResponseEntity.status(apiError.getStatusCode())
+				.header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+				.body(apiError);
+	}
+
 	private ResponseEntity<ApiError> buildResponseEntity(ApiError apiError) {
 		log.warn("Client error response: {}", apiError, apiError.getException());
 		return new ResponseEntity<>(apiError, apiError.getStatusCode());
@@ -0,0 +1,27 @@
+package com.nb.imgstore.exception;
+
+import lombok.Getter;
+
+/**
+ * Thrown when the service is temporarily overloaded and the client should retry later
+ */
+@Getter
+public class ServiceUnavailableException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	private static final long DEFAULT_RETRY_AFTER_SECONDS = 5;
+
+	/**
+	 * Suggested delay for the client before retrying
+	 */
+	private final long retryAfterSeconds;
+
+	public ServiceUnavailableException(String message) {
+		this(message, DEFAULT_RETRY_AFTER_SECONDS);
+	}
+
+	public ServiceUnavailableException(String message, long retryAfterSeconds) {
+		super(message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.nb.imgstore.extservice.blob;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+
+import org.apache.commons.io.function.IOConsumer;
+
+/**
+ * Storage of binary content outside of the database.
+ * <p>
+ * Blobs are immutable and addressed by a key generated by the store.
+ */
+public interface BlobStore {
+
+	/**
+	 * Stores the given content.
+	 * 
+	 * @param content
+	 * @return the key of the stored blob
+	 */
+	String put(byte[] content);
+
+	/**
+	 * Stores the content written by the given writer, without buffering it in memory.
+	 * 
+	 * @param writer - writes the content into the provided stream
+	 * @return the key of the stored blob
+	 */
+	String put(IOConsumer<OutputStream> writer);
+
+	/**
+	 * Returns the content of a blob.
+	 * 
+	 * @param key
+	 * @return the blob content
+	 */
+	byte[] get(String key);
+
+	/**
+	 * Opens a blob for reading, the caller must close the stream.
+	 * 
+	 * @param key
+	 * @return stream of the blob content
+	 */
+	InputStream open(String key);
+
+	/**
+	 * Opens a blob for random access reading, the caller must close the channel.
+	 * 
+	 * @param key
+	 * @return read-only channel of the blob content
+	 */
+	SeekableByteChannel openChannel(String key);
+
+	/**
+	 * Removes a blob, does nothing if it does not exist.
+	 * 
+	 * @param key
+	 */
+	void delete(String key);
+
+}
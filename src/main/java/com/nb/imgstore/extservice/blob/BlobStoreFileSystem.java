@@ -0,0 +1,177 @@
+package com.nb.imgstore.extservice.blob;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.function.IOConsumer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Content-addressed blob store on the local filesystem.
+ * <p>
+ * The key of a blob is the SHA-256 hash of its content, the file is located at <code>root/ab/cd/abcd...</code><br>
+ * New blobs are written to <code>root/tmp</code> first and atomically renamed to their final place,
+ * so readers never see partially written files. Storing the same content twice keeps a single file.
+ */
+@Slf4j
+@Service
+class BlobStoreFileSystem implements BlobStore {
+	private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Durability of the written blobs
+	 */
+	enum FsyncPolicy {
+		/** leave flushing to the OS */
+		NONE,
+		/** fsync the blob file before renaming it */
+		FILE,
+		/** fsync the blob file and its directory after renaming it */
+		FILE_AND_DIRECTORY
+	}
+
+	private final Path root;
+	private final Path tempDir;
+	private final FsyncPolicy fsyncPolicy;
+
+	BlobStoreFileSystem(@Value("${app.blob-store.root}") Path root, @Value("${app.blob-store.fsync:FILE}") FsyncPolicy fsyncPolicy) {
+		this.root = root;
+		this.tempDir = root.resolve("tmp");
+		this.fsyncPolicy = fsyncPolicy;
+		try {
+			Files.createDirectories(tempDir);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to create blob store directory: " + root, e);
+		}
+		log.info("blob store root: {} | fsync: {}", root, fsyncPolicy);
+	}
+
+	@Override
+	public String put(byte[] content) {
+		return put(out -> out.write(content));
+	}
+
+	@Override
+	public String put(IOConsumer<OutputStream> writer) {
+		Path tempFile = tempDir.resolve(UUID.randomUUID().toString());
+		try {
+			String key = writeTempFile(tempFile, writer);
+			Path file = resolve(key);
+			Files.createDirectories(file.getParent());
+			if (Files.exists(file)) {
+				log.debug("blob already stored: {}", key);
+				Files.delete(tempFile);
+				return key;
+			}
+			Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+			if (fsyncPolicy == FsyncPolicy.FILE_AND_DIRECTORY) {
+				fsyncDirectory(file.getParent());
+			}
+			return key;
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to store blob", e);
+		} finally {
+			deleteQuietly(tempFile);
+		}
+	}
+
+	@Override
+	public byte[] get(String key) {
+		try {
+			return Files.readAllBytes(resolve(key));
+		} catch (NoSuchFileException e) {
+			throw new IllegalStateException("Blob not found: " + key, e);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read blob: " + key, e);
+		}
+	}
+
+	@Override
+	public InputStream open(String key) {
+		try {
+			return Files.newInputStream(resolve(key));
+		} catch (NoSuchFileException e) {
+			throw new IllegalStateException("Blob not found: " + key, e);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read blob: " + key, e);
+		}
+	}
+
+	@Override
+	public SeekableByteChannel openChannel(String key) {
+		try {
+			return Files.newByteChannel(resolve(key), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			throw new IllegalStateException("Blob not found: " + key, e);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read blob: " + key, e);
+		}
+	}
+
+	@Override
+	public void delete(String key) {
+		try {
+			Files.deleteIfExists(resolve(key));
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to delete blob: " + key, e);
+		}
+	}
+
+	private String writeTempFile(Path tempFile, IOConsumer<OutputStream> writer) throws IOException {
+		MessageDigest digest = DigestUtils.getSha256Digest();
+		try (FileOutputStream fos = new FileOutputStream(tempFile.toFile());
+				DigestOutputStream out = new DigestOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE), digest)) {
+			writer.accept(out);
+			out.flush();
+			if (fsyncPolicy != FsyncPolicy.NONE) {
+				fos.getChannel().force(true);
+			}
+		}
+		return Hex.encodeHexString(digest.digest());
+	}
+
+	private Path resolve(String key) {
+		if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+			throw new IllegalArgumentException("Invalid blob key: " + key);
+		}
+		return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+	}
+
+	private void fsyncDirectory(Path dir) {
+		try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// not supported on every platform (e.g. Windows)
+			log.trace("unable to fsync directory: {}", dir, e);
+		}
+	}
+
+	private void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warn("unable to delete temp blob: {}", file, e);
+		}
+	}
+
+}
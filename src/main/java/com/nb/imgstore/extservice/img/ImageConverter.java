@@ -1,5 +1,7 @@
 package com.nb.imgstore.extservice.img;
 
+import java.nio.file.Path;
+
 /**
  * Collection of image manipulating functions
  */
@@ -23,4 +25,24 @@ public interface ImageConverter {
 	 */
 	byte[] scale(byte[] sourceImage, int width, int height);
 
+	/**
+	 * Scales down an image file into the default (5000x5000) boundaries, keeping the ratio, without loading the
+	 * file into memory (where the engine allows).
+	 * 
+	 * @param sourceImage
+	 * @param targetImage - receives the scaled down image, it may be the same as the source
+	 */
+	void scale(Path sourceImage, Path targetImage);
+
+	/**
+	 * Scales down an image file into the given boundaries, keeping the ratio, without loading the file into memory
+	 * (where the engine allows).
+	 * 
+	 * @param sourceImage
+	 * @param targetImage - receives the scaled down image, it may be the same as the source
+	 * @param width
+	 * @param height
+	 */
+	void scale(Path sourceImage, Path targetImage, int width, int height);
+
 }
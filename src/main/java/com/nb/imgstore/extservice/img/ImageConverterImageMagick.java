@@ -1,31 +1,79 @@
 package com.nb.imgstore.extservice.img;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import com.nb.imgstore.exception.ServiceUnavailableException;
+import com.nb.imgstore.util.StageTrace;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Adapter for the ImageMagick tool.
  * <p>
  * The location of the tool's directory must be set in the <code>MAGICK</code> environment variable to make this work!
+ * <p>
+ * The number of concurrently running <code>magick</code> processes is limited by
+ * <code>app.image-converter.imagemagick.concurrency</code>, further conversions wait in a fair queue.<br>
+ * When the queue is full or the wait times out, the conversion is rejected with {@link ServiceUnavailableException}
+ * instead of piling up processes.
  */
 @Slf4j
 @Service
+@ConditionalOnProperty(name = "app.image-converter.engine", havingValue = "imagemagick", matchIfMissing = true)
 class ImageConverterImageMagick implements ImageConverter {
 	private static final File TEMPDIR = FileUtils.getFile(FileUtils.getTempDirectoryPath(), "imgstore");
 	private static final String EXTENSION = ".img";
 
-	@Value("${app.image-converter.scale.max-dimension:5000}")
-	private int maxDim;
+	private final int maxDim;
+	private final String executable;
+	private final Semaphore slots;
+	private final int maxQueueLength;
+	private final Duration queueTimeout;
+	private final Duration processTimeout;
+	private final Timer queueWaitTimer;
+	private final Timer conversionTimer;
+	private final Counter rejectedCounter;
+	private final MeterRegistry meterRegistry;
+
+	ImageConverterImageMagick(@Value("${app.image-converter.scale.max-dimension:5000}") int maxDim,
+			@Value("${MAGICK:}") String magickDir,
+			@Value("${app.image-converter.imagemagick.concurrency:0}") int concurrency,
+			@Value("${app.image-converter.imagemagick.max-queue-length:100}") int maxQueueLength,
+			@Value("${app.image-converter.imagemagick.queue-timeout:30s}") Duration queueTimeout,
+			@Value("${app.image-converter.imagemagick.process-timeout:60s}") Duration processTimeout,
+			MeterRegistry meterRegistry) {
+		this.maxDim = maxDim;
+		this.executable = magickDir.isEmpty() ? null : FileUtils.getFile(magickDir, "magick").getAbsolutePath();
+		int permits = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+		this.slots = new Semaphore(permits, true);
+		this.maxQueueLength = maxQueueLength;
+		this.queueTimeout = queueTimeout;
+		this.processTimeout = processTimeout;
+		this.queueWaitTimer = meterRegistry.timer("imgstore.imagemagick.queue.wait");
+		this.conversionTimer = meterRegistry.timer("imgstore.imagemagick.conversion");
+		this.rejectedCounter = meterRegistry.counter("imgstore.imagemagick.rejected");
+		this.meterRegistry = meterRegistry;
+		Gauge.builder("imgstore.imagemagick.queue.depth", slots, Semaphore::getQueueLength).register(meterRegistry);
+		Gauge.builder("imgstore.imagemagick.active", slots, s -> permits - s.availablePermits()).register(meterRegistry);
+		log.info("imagemagick executable: {} | concurrency: {} | max queue length: {}", executable, permits, maxQueueLength);
+	}
 
 	/**
 	 * It executes a scaling command on the image, keeping the ratio.<br>
@@ -33,8 +81,8 @@ class ImageConverterImageMagick implements ImageConverter {
 	 * Scaling does not take effect when the image is smaller than the given boundaries, so that it scales only down.<br>
 	 * This scaling down feature is turned on by the <code>^></code> switch.
 	 * <p>
-	 * Example: <code>$ magick a.jpg –scale 5000x5000^> a.jpg</code>
-	 * 
+	 * Example: <code>$ magick a.jpg –scale 5000x1^> -scale 1x5000^> a.jpg</code>
+	 *
 	 * @param file - the file to work on
 	 */
 	@Override
@@ -47,8 +95,8 @@ class ImageConverterImageMagick implements ImageConverter {
 	 * Scaling does not take effect when the image is smaller than the given boundaries, so that it scales only down.<br>
 	 * This scaling down feature is turned on by the <code>^></code> switch.
 	 * <p>
-	 * Example: <code>$ magick a.jpg –scale 400x300^> a.jpg</code>
-	 * 
+	 * Example: <code>$ magick a.jpg –scale 400x1^> -scale 1x300^> a.jpg</code>
+	 *
 	 * @param file   - the file to work on
 	 * @param width  - target width
 	 * @param height - target height
@@ -60,42 +108,124 @@ class ImageConverterImageMagick implements ImageConverter {
 		File file = FileUtils.getFile(TEMPDIR, id + EXTENSION);
 		try {
 			writeSourceImage(sourceImage, file);
-			downScaleImage(file, width + "x1^>");
-			downScaleImage(file, "1x" + height + "^>");
+			scale(file.toPath(), file.toPath(), width, height);
 			return readResultImage(file);
 		} finally {
 			file.delete();
 		}
 	}
 
-	private void downScaleImage(File file, String geometry) {
-		String executable = getExecutablePath();
-		String[] command = { escape(executable), escape(file.getName()), "-scale", geometry, escape(file.getName()) };
+	@Override
+	public void scale(Path sourceImage, Path targetImage) {
+		scale(sourceImage, targetImage, maxDim, maxDim);
+	}
+
+	/**
+	 * The files are passed to the tool by their paths, the image content is never loaded into memory.
+	 * <p>
+	 * Example: <code>$ magick /tmp/a.img –scale 400x1^> -scale 1x300^> /tmp/b.img</code>
+	 */
+	@Override
+	public void scale(Path sourceImage, Path targetImage, int width, int height) {
+		String executablePath = getExecutablePath();
+		initDirectory();
+		acquireSlot();
+		try {
+			conversionTimer.record(() -> downScaleImage(executablePath, sourceImage, targetImage, width + "x1^>", "1x" + height + "^>"));
+		} finally {
+			slots.release();
+		}
+	}
+
+	private void acquireSlot() {
+		long start = System.nanoTime();
+		try {
+			if (slots.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+				recordQueueWait(start);
+				return;
+			}
+			if (slots.getQueueLength() >= maxQueueLength) {
+				rejectedCounter.increment();
+				throw new ServiceUnavailableException("Image conversion queue is full");
+			}
+			boolean acquired = slots.tryAcquire(queueTimeout.toMillis(), TimeUnit.MILLISECONDS);
+			recordQueueWait(start);
+			if (!acquired) {
+				rejectedCounter.increment();
+				throw new ServiceUnavailableException("Timed out waiting for image conversion");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for image conversion", e);
+		}
+	}
+
+	/**
+	 * The wait also goes to the <code>scale-queue</code> stage of the current request's trace.
+	 */
+	private void recordQueueWait(long start) {
+		long wait = System.nanoTime() - start;
+		queueWaitTimer.record(wait, TimeUnit.NANOSECONDS);
+		StageTrace.record("scale-queue", wait);
+	}
+
+	/**
+	 * Both scaling steps are applied by a single process.<br>
+	 * The output of the process goes to a log file, so waiting for the process can time out.
+	 */
+	private void downScaleImage(String executablePath, Path source, Path target, String widthGeometry, String heightGeometry) {
+		String[] command = { executablePath, source.toAbsolutePath().toString(), "-scale", widthGeometry, "-scale", heightGeometry,
+				target.toAbsolutePath().toString() };
 		log.debug("command: {}", Arrays.toString(command));
+		File logFile = FileUtils.getFile(TEMPDIR, UUID.randomUUID() + ".log");
 		try {
-			Process process = new ProcessBuilder().directory(TEMPDIR).redirectErrorStream(true).command(command).start();
-			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-			String line;
-			while ((line = reader.readLine()) != null) {
-				log.trace(line);
+			Process process = new ProcessBuilder().directory(TEMPDIR).redirectErrorStream(true).redirectOutput(logFile).command(command).start();
+			if (!process.waitFor(processTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+				process.destroyForcibly();
+				countExit("timeout");
+				throw new IllegalStateException("Unable to scale image, imagemagick timed out");
 			}
-			int exitCode = process.waitFor();
+			int exitCode = process.exitValue();
 			log.debug("imagemagick exit code: {}", exitCode);
-		} catch (IOException | InterruptedException e) {
+			countExit(String.valueOf(exitCode));
+			if (exitCode != 0) {
+				throw new IllegalStateException("Unable to scale image, imagemagick exit code: " + exitCode);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to scale image", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			throw new IllegalStateException("Unable to scale image", e);
+		} finally {
+			traceOutput(logFile);
 		}
 	}
 
-	private String getExecutablePath() {
-		String dir = System.getenv("MAGICK");
-		if (dir == null) {
-			throw new IllegalStateException("ImageMagick directory must be configured by environment var: MAGICK");
+	/**
+	 * Exit codes are counted by <code>imgstore.imagemagick.exits</code>, tagged by <code>code</code> (or
+	 * <code>timeout</code>).
+	 */
+	private void countExit(String code) {
+		meterRegistry.counter("imgstore.imagemagick.exits", "code", code).increment();
+	}
+
+	private void traceOutput(File logFile) {
+		try {
+			if (log.isTraceEnabled() && logFile.exists()) {
+				FileUtils.readLines(logFile, Charset.defaultCharset()).forEach(log::trace);
+			}
+		} catch (IOException e) {
+			log.trace("unable to read imagemagick output", e);
+		} finally {
+			logFile.delete();
 		}
-		return FileUtils.getFile(dir, "magick").getAbsolutePath();
 	}
 
-	private String escape(String path) {
-		return "\"" + path + "\"";
+	private String getExecutablePath() {
+		if (executable == null) {
+			throw new IllegalStateException("ImageMagick directory must be configured by environment var: MAGICK");
+		}
+		return executable;
 	}
 
 	private void initDirectory() {
@@ -0,0 +1,194 @@
+package com.nb.imgstore.extservice.img;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-process image converter based on <code>javax.imageio</code> and Java2D.
+ * <p>
+ * Only the header is read when the image is already within the boundaries, so such images are returned untouched.<br>
+ * Huge images are decoded with source subsampling (still at least twice the target size),
+ * then scaled down progressively by halving steps to keep the quality of bilinear interpolation.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "app.image-converter.engine", havingValue = "java2d")
+class ImageConverterJava2D implements ImageConverter {
+	private final int maxDim;
+	private final float jpegQuality;
+
+	ImageConverterJava2D(@Value("${app.image-converter.scale.max-dimension:5000}") int maxDim,
+			@Value("${app.image-converter.java2d.jpeg-quality:0.9}") float jpegQuality) {
+		this.maxDim = maxDim;
+		this.jpegQuality = jpegQuality;
+	}
+
+	@Override
+	public byte[] scale(byte[] sourceImage) {
+		return scale(sourceImage, maxDim, maxDim);
+	}
+
+	@Override
+	public byte[] scale(byte[] sourceImage, int width, int height) {
+		try {
+			ScaledImage scaled;
+			try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(sourceImage))) {
+				scaled = scale(iis, width, height);
+			}
+			if (scaled == null) {
+				return sourceImage;
+			}
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			write(scaled, baos);
+			return baos.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to scale image", e);
+		}
+	}
+
+	@Override
+	public void scale(Path sourceImage, Path targetImage) {
+		scale(sourceImage, targetImage, maxDim, maxDim);
+	}
+
+	/**
+	 * The source is decoded from the file, the source file is closed before the target is written, so they can be the
+	 * same.
+	 */
+	@Override
+	public void scale(Path sourceImage, Path targetImage, int width, int height) {
+		try {
+			ScaledImage scaled;
+			try (ImageInputStream iis = ImageIO.createImageInputStream(sourceImage.toFile())) {
+				scaled = scale(iis, width, height);
+			}
+			if (scaled == null) {
+				if (!sourceImage.equals(targetImage)) {
+					Files.copy(sourceImage, targetImage, StandardCopyOption.REPLACE_EXISTING);
+				}
+				return;
+			}
+			try (OutputStream out = Files.newOutputStream(targetImage)) {
+				write(scaled, out);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to scale image", e);
+		}
+	}
+
+	/**
+	 * @return the scaled down image, or null if the image is within the boundaries
+	 */
+	private ScaledImage scale(ImageInputStream iis, int width, int height) throws IOException {
+		if (iis == null) {
+			throw new IllegalStateException("Unsupported image format");
+		}
+		ImageReader reader = getReader(iis);
+		try {
+			reader.setInput(iis, true, true);
+			int sourceWidth = reader.getWidth(0);
+			int sourceHeight = reader.getHeight(0);
+			if (sourceWidth <= width && sourceHeight <= height) {
+				log.debug("image within bounds: {}x{}", sourceWidth, sourceHeight);
+				return null;
+			}
+			double ratio = Math.min((double) width / sourceWidth, (double) height / sourceHeight);
+			int targetWidth = (int) Math.max(1, Math.round(sourceWidth * ratio));
+			int targetHeight = (int) Math.max(1, Math.round(sourceHeight * ratio));
+			log.debug("scaling image: {}x{} -> {}x{}", sourceWidth, sourceHeight, targetWidth, targetHeight);
+
+			BufferedImage decoded = reader.read(0, subsampling(sourceWidth, targetWidth, reader));
+			return new ScaledImage(scaleProgressively(decoded, targetWidth, targetHeight), reader.getFormatName());
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	private ImageReader getReader(ImageInputStream iis) {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+		if (!readers.hasNext()) {
+			throw new IllegalStateException("Unsupported image format");
+		}
+		return readers.next();
+	}
+
+	private ImageReadParam subsampling(int sourceWidth, int targetWidth, ImageReader reader) {
+		ImageReadParam param = reader.getDefaultReadParam();
+		int factor = sourceWidth / (2 * targetWidth);
+		if (factor > 1) {
+			log.debug("decoding with subsampling: {}", factor);
+			param.setSourceSubsampling(factor, factor, 0, 0);
+		}
+		return param;
+	}
+
+	private BufferedImage scaleProgressively(BufferedImage image, int targetWidth, int targetHeight) {
+		int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		BufferedImage result = image;
+		int width = image.getWidth();
+		int height = image.getHeight();
+		do {
+			width = Math.max(targetWidth, width / 2);
+			height = Math.max(targetHeight, height / 2);
+			result = draw(result, width, height, type);
+		} while (width != targetWidth || height != targetHeight);
+		return result;
+	}
+
+	private BufferedImage draw(BufferedImage source, int width, int height, int type) {
+		BufferedImage target = new BufferedImage(width, height, type);
+		Graphics2D g = target.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(source, 0, 0, width, height, null);
+		} finally {
+			g.dispose();
+		}
+		return target;
+	}
+
+	private void write(ScaledImage scaled, OutputStream out) throws IOException {
+		String formatName = scaled.formatName();
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(formatName).next();
+		try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(ios);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (param.canWriteCompressed() && "jpeg".equalsIgnoreCase(formatName)) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(jpegQuality);
+			}
+			writer.write(null, new IIOImage(scaled.image(), null, null), param);
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	private record ScaledImage(BufferedImage image, String formatName) {
+	}
+
+}
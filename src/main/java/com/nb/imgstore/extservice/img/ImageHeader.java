@@ -0,0 +1,126 @@
+package com.nb.imgstore.extservice.img;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Format and dimensions of an image, parsed from the header only (PNG <code>IHDR</code> / JPEG <code>SOFn</code>).
+ * <p>
+ * It is a cheap way to decide whether an image needs scaling, without decoding the pixels.
+ *
+ * @param format - <code>png</code> or <code>jpeg</code>
+ * @param width
+ * @param height
+ */
+public record ImageHeader(String format, int width, int height) {
+	public static final String PNG = "png";
+	public static final String JPEG = "jpeg";
+	private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+	private static final int PNG_IHDR = 0x49484452;
+
+	/**
+	 * @param width  - max width
+	 * @param height - max height
+	 * @return whether the image fits into the given boundaries
+	 */
+	public boolean isWithin(int width, int height) {
+		return this.width <= width && this.height <= height;
+	}
+
+	/**
+	 * Parses the header of a PNG or JPEG image.
+	 *
+	 * @param image - image content
+	 * @return the header, or empty if it is not a valid PNG or JPEG header
+	 */
+	public static Optional<ImageHeader> read(byte[] image) {
+		try {
+			return read(new ByteArrayInputStream(image));
+		} catch (IOException e) {
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Parses the header of a PNG or JPEG image, reading only as much of the stream as needed.
+	 *
+	 * @param in - image content
+	 * @return the header, or empty if it is not a valid PNG or JPEG header
+	 * @throws IOException when reading the stream fails
+	 */
+	public static Optional<ImageHeader> read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		try {
+			int first = data.readUnsignedByte();
+			if (first == (PNG_SIGNATURE[0] & 0xff)) {
+				return readPng(data);
+			}
+			if (first == 0xff && data.readUnsignedByte() == 0xd8) {
+				return readJpeg(data);
+			}
+			return Optional.empty();
+		} catch (EOFException e) {
+			return Optional.empty();
+		}
+	}
+
+	private static Optional<ImageHeader> readPng(DataInputStream data) throws IOException {
+		byte[] signature = new byte[PNG_SIGNATURE.length];
+		signature[0] = PNG_SIGNATURE[0];
+		data.readFully(signature, 1, signature.length - 1);
+		if (!Arrays.equals(PNG_SIGNATURE, signature)) {
+			return Optional.empty();
+		}
+		data.readInt(); // chunk length
+		if (data.readInt() != PNG_IHDR) {
+			return Optional.empty();
+		}
+		return of(PNG, data.readInt(), data.readInt());
+	}
+
+	private static Optional<ImageHeader> readJpeg(DataInputStream data) throws IOException {
+		while (true) {
+			if (data.readUnsignedByte() != 0xff) {
+				return Optional.empty();
+			}
+			int marker = data.readUnsignedByte();
+			while (marker == 0xff) { // fill bytes
+				marker = data.readUnsignedByte();
+			}
+			if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) { // standalone markers: TEM, RSTn
+				continue;
+			}
+			if (marker == 0xd9 || marker == 0xda) { // EOI or SOS before any SOFn
+				return Optional.empty();
+			}
+			int length = data.readUnsignedShort();
+			if (length < 2) {
+				return Optional.empty();
+			}
+			if (isStartOfFrame(marker)) {
+				data.readUnsignedByte(); // precision
+				int height = data.readUnsignedShort();
+				int width = data.readUnsignedShort();
+				return of(JPEG, width, height);
+			}
+			data.skipNBytes(length - 2L);
+		}
+	}
+
+	private static boolean isStartOfFrame(int marker) {
+		return marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+	}
+
+	private static Optional<ImageHeader> of(String format, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return Optional.empty();
+		}
+		return Optional.of(new ImageHeader(format, width, height));
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.nb.imgstore.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Export of all the images into a zip file on disk.
+ * <p>
+ * An export belongs to a version of the image library, it is reused until new images are uploaded.
+ */
+@Entity
+@Table(name = "export_jobs", indexes = @Index(columnList = "libraryVersion"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportJob {
+
+	public enum Status {
+		PENDING, RUNNING, DONE, FAILED,
+		/** replaced by the export of a newer library version, its file is deleted */
+		EXPIRED
+	}
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "export_jobs_seq")
+	@SequenceGenerator(name = "export_jobs_seq", sequenceName = "export_jobs_seq", allocationSize = 1)
+	private Long id;
+
+	@NotNull
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false)
+	private Status status;
+
+	/**
+	 * Number of images and the last image id at the time the export was requested
+	 */
+	@NotNull
+	@Column(nullable = false)
+	private String libraryVersion;
+
+	/**
+	 * Size of the zip file
+	 */
+	private Long size;
+
+	@Column(length = 1000)
+	private String lastError;
+
+	private Instant createdAt;
+
+	private Instant completedAt;
+
+}
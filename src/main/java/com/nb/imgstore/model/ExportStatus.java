@@ -0,0 +1,20 @@
+package com.nb.imgstore.model;
+
+import java.time.Instant;
+
+/**
+ * Progress of an export.
+ *
+ * @param id          - export id
+ * @param status      - the zip file can be downloaded when it is <code>DONE</code>
+ * @param size        - size of the zip file, when it is done
+ * @param createdAt
+ * @param completedAt
+ */
+public record ExportStatus(Long id, ExportJob.Status status, Long size, Instant createdAt, Instant completedAt) {
+
+	public static ExportStatus of(ExportJob job) {
+		return new ExportStatus(job.getId(), job.getStatus(), job.getSize(), job.getCreatedAt(), job.getCompletedAt());
+	}
+
+}
@@ -1,11 +1,14 @@
 package com.nb.imgstore.model;
 
+import java.time.Instant;
+
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
-import jakarta.persistence.Lob;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import jakarta.validation.constraints.NotNull;
 import lombok.AllArgsConstructor;
@@ -14,15 +17,21 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Entity
-@Table(name = "images")
+@Table(name = "images", indexes = { @Index(columnList = "originalHash"), @Index(columnList = "createdAt") })
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 public class Image {
+	public static final String ID_SEQUENCE = "images_seq";
+	public static final int ID_ALLOCATION_SIZE = 50;
 
+	/**
+	 * Sequence based with pooled allocation, so that inserts can be batched by Hibernate
+	 */
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+	@SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
 	private Long id;
 
 	@NotNull
@@ -31,9 +40,33 @@ public class Image {
 
 	private String type;
 
+	/**
+	 * Size of the (decrypted) image content in bytes
+	 */
+	private Long size;
+
+	private Instant createdAt;
+
+	/**
+	 * SHA-256 hash (hex) of the (decrypted) image content, used as ETag
+	 */
+	private String contentHash;
+
+	/**
+	 * CRC-32 of the (decrypted) image content, stored zip entries are written by it
+	 */
+	private Long crc32;
+
+	/**
+	 * SHA-256 hash (hex) of the uploaded content, before scaling, it references the shared {@link ImageContent}
+	 */
+	private String originalHash;
+
+	/**
+	 * Key of the encrypted image content in the blob store
+	 */
 	@NotNull
-	@Lob
 	@Column(nullable = false)
-	private byte[] data;
+	private String blobKey;
 
 }
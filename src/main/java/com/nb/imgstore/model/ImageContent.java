@@ -0,0 +1,70 @@
+package com.nb.imgstore.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Stored content of an uploaded image, shared by the images uploaded with the same original content.
+ */
+@Entity
+@Table(name = "image_contents")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageContent {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_contents_seq")
+	@SequenceGenerator(name = "image_contents_seq", sequenceName = "image_contents_seq", allocationSize = 50)
+	private Long id;
+
+	/**
+	 * SHA-256 hash (hex) of the uploaded content, before scaling
+	 */
+	@NotNull
+	@Column(unique = true, nullable = false)
+	private String originalHash;
+
+	/**
+	 * Size of the (decrypted) stored content in bytes
+	 */
+	private Long size;
+
+	/**
+	 * SHA-256 hash (hex) of the (decrypted) stored content
+	 */
+	private String contentHash;
+
+	/**
+	 * CRC-32 of the (decrypted) stored content
+	 */
+	private Long crc32;
+
+	/**
+	 * Key of the encrypted content in the blob store
+	 */
+	@NotNull
+	@Column(nullable = false)
+	private String blobKey;
+
+	/**
+	 * Number of images referencing this content
+	 */
+	private long refCount;
+
+	private Instant createdAt;
+
+}
@@ -0,0 +1,29 @@
+package com.nb.imgstore.model;
+
+import java.time.Instant;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.Size;
+
+/**
+ * Selection of images, by the criteria given (all of them must match).
+ *
+ * @param names  - generated (UUID) names
+ * @param prefix - beginning of the generated name
+ * @param from   - uploaded at or after (inclusive)
+ * @param to     - uploaded before (exclusive)
+ * @param type   - content type
+ */
+public record ImageFilter(@Size(max = 1000) List<String> names, String prefix, Instant from, Instant to, String type) {
+
+	@JsonIgnore
+	@AssertTrue(message = "At least one of names, prefix, from, to or type is required")
+	public boolean isRestricted() {
+		return names != null && !names.isEmpty() || prefix != null && !prefix.isEmpty() || from != null || to != null
+				|| type != null;
+	}
+
+}
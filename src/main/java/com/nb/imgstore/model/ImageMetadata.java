@@ -0,0 +1,15 @@
+package com.nb.imgstore.model;
+
+import java.time.Instant;
+
+/**
+ * Projection of an {@link Image} without its content.
+ * 
+ * @param name        - generated (UUID) name
+ * @param type        - content type
+ * @param size        - content size in bytes
+ * @param createdAt   - upload time
+ * @param contentHash - SHA-256 hash of the content (hex)
+ */
+public record ImageMetadata(String name, String type, Long size, Instant createdAt, String contentHash) {
+}
@@ -0,0 +1,63 @@
+package com.nb.imgstore.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Pre-generated, scaled down rendition (thumbnail) of an image, stored alongside the original.
+ */
+@Entity
+@Table(name = "image_variants", uniqueConstraints = @UniqueConstraint(columnNames = { "imageName", "width", "height" }))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageVariant {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_variants_seq")
+	@SequenceGenerator(name = "image_variants_seq", sequenceName = "image_variants_seq", allocationSize = 50)
+	private Long id;
+
+	@NotNull
+	@Column(nullable = false)
+	private String imageName;
+
+	/**
+	 * Max width the image was scaled into
+	 */
+	private int width;
+
+	/**
+	 * Max height the image was scaled into
+	 */
+	private int height;
+
+	/**
+	 * Size of the (decrypted) variant content in bytes
+	 */
+	private Long size;
+
+	private Instant createdAt;
+
+	/**
+	 * Key of the encrypted variant content in the blob store
+	 */
+	@NotNull
+	@Column(nullable = false)
+	private String blobKey;
+
+}
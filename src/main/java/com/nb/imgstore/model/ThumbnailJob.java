@@ -0,0 +1,64 @@
+package com.nb.imgstore.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Pending or completed generation of the thumbnails of an image.
+ * <p>
+ * Jobs are persisted in the same transaction as the uploaded image, so pending work survives a restart.
+ */
+@Entity
+@Table(name = "thumbnail_jobs", indexes = @Index(columnList = "status, nextAttemptAt"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ThumbnailJob {
+
+	public enum Status {
+		PENDING, DONE, FAILED
+	}
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "thumbnail_jobs_seq")
+	@SequenceGenerator(name = "thumbnail_jobs_seq", sequenceName = "thumbnail_jobs_seq", allocationSize = 50)
+	private Long id;
+
+	@NotNull
+	@Column(unique = true, nullable = false)
+	private String imageName;
+
+	@NotNull
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false)
+	private Status status;
+
+	private int attempts;
+
+	/**
+	 * The job is not picked up before this time (retry backoff)
+	 */
+	private Instant nextAttemptAt;
+
+	@Column(length = 1000)
+	private String lastError;
+
+	private Instant createdAt;
+
+}
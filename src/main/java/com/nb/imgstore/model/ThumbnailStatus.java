@@ -0,0 +1,13 @@
+package com.nb.imgstore.model;
+
+import java.util.List;
+
+/**
+ * Readiness of the thumbnails of an image.
+ *
+ * @param name   - image name
+ * @param status - status of the thumbnail generation
+ * @param sizes  - sizes of the thumbnails ready to be downloaded (by <code>w</code> and <code>h</code>)
+ */
+public record ThumbnailStatus(String name, ThumbnailJob.Status status, List<Integer> sizes) {
+}
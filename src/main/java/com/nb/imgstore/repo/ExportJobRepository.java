@@ -0,0 +1,28 @@
+package com.nb.imgstore.repo;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.nb.imgstore.model.ExportJob;
+
+public interface ExportJobRepository extends JpaRepository<ExportJob, Long> {
+
+	/**
+	 * Returns the latest export of a library version in one of the given statuses.
+	 */
+	Optional<ExportJob> findFirstByLibraryVersionAndStatusInOrderByIdDesc(String libraryVersion, Collection<ExportJob.Status> statuses);
+
+	List<ExportJob> findByStatusIn(Collection<ExportJob.Status> statuses);
+
+	List<ExportJob> findByStatusAndIdLessThan(ExportJob.Status status, Long id);
+
+	/**
+	 * Returns the latest export in the given status completed before the given time.
+	 */
+	Optional<ExportJob> findFirstByStatusAndCompletedAtBeforeOrderByIdDesc(ExportJob.Status status, Instant completedAt);
+
+}
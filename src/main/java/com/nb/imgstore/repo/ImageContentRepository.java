@@ -0,0 +1,26 @@
+package com.nb.imgstore.repo;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import com.nb.imgstore.model.ImageContent;
+
+public interface ImageContentRepository extends JpaRepository<ImageContent, Long> {
+
+	Optional<ImageContent> findByOriginalHash(String originalHash);
+
+	List<ImageContent> findByOriginalHashIn(Collection<String> originalHashes);
+
+	/**
+	 * Atomically adds the given number of references to a content.
+	 */
+	@Modifying
+	@Query("update ImageContent c set c.refCount = c.refCount + :count where c.id = :id")
+	int addReferences(Long id, long count);
+
+}
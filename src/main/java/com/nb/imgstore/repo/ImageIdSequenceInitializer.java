@@ -0,0 +1,56 @@
+package com.nb.imgstore.repo;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.nb.imgstore.model.Image;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Moves the image id sequence past the existing image ids at startup, before any image is saved.
+ * <p>
+ * Image ids were generated by an IDENTITY column before, the schema update creates the sequence starting at 1 on such
+ * databases, so the generated ids would collide with the existing ones.
+ */
+@Slf4j
+@Component
+class ImageIdSequenceInitializer {
+	private final JdbcTemplate jdbcTemplate;
+	private final Dialect dialect;
+
+	/**
+	 * The entity manager factory runs the schema update, so the sequence exists by then.
+	 */
+	@Autowired
+	ImageIdSequenceInitializer(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+		this(jdbcTemplate, entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect());
+	}
+
+	ImageIdSequenceInitializer(JdbcTemplate jdbcTemplate, Dialect dialect) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.dialect = dialect;
+	}
+
+	@PostConstruct
+	void initialize() {
+		Long maxId = jdbcTemplate.queryForObject("select max(id) from images", Long.class);
+		if (maxId == null) {
+			return;
+		}
+		Long next = jdbcTemplate.queryForObject(dialect.getSequenceSupport().getSequenceNextValString(Image.ID_SEQUENCE), Long.class);
+		// pooled allocation: a value of the sequence is the last id of its block
+		if (next - Image.ID_ALLOCATION_SIZE < maxId) {
+			long restart = maxId + Image.ID_ALLOCATION_SIZE;
+			log.warn("image id sequence behind the existing ids, restarting: {} | max id: {} | restart with: {}", Image.ID_SEQUENCE,
+					maxId, restart);
+			jdbcTemplate.execute("alter sequence " + Image.ID_SEQUENCE + " restart with " + restart);
+		}
+	}
+
+}
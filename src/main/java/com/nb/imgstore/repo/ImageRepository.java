@@ -1,13 +1,36 @@
 package com.nb.imgstore.repo;
 
+import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 
 import com.nb.imgstore.model.Image;
+import com.nb.imgstore.model.ImageMetadata;
 
-public interface ImageRepository extends JpaRepository<Image, Long> {
+public interface ImageRepository extends JpaRepository<Image, Long>, JpaSpecificationExecutor<Image> {
 
 	Optional<Image> findByName(String name);
 
+	Optional<ImageMetadata> findMetadataByName(String name);
+
+	Page<ImageMetadata> findAllBy(Pageable pageable);
+
+	/**
+	 * Keyset pagination: returns the next page of images after the given id, ordered by id.
+	 */
+	List<Image> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+	/**
+	 * Returns the version of the image library: the number of images and the last image id. Images are never
+	 * updated or deleted, so it changes only by uploads.
+	 */
+	@Query("select concat(cast(count(i) as String), ':', cast(coalesce(max(i.id), 0) as String)) from Image i")
+	String findLibraryVersion();
+
 }
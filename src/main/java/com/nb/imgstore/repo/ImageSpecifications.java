@@ -0,0 +1,67 @@
+package com.nb.imgstore.repo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import com.nb.imgstore.model.Image;
+import com.nb.imgstore.model.ImageFilter;
+
+import jakarta.persistence.criteria.Predicate;
+
+/**
+ * Query criteria of {@link Image}s.
+ */
+public final class ImageSpecifications {
+	private static final char LIKE_ESCAPE = '\\';
+
+	private ImageSpecifications() {
+	}
+
+	/**
+	 * Images matching all the criteria of the filter, the names and the upload time are looked up by index.<br>
+	 * The name prefix is matched by <code>LIKE 'prefix%'</code>: on PostgreSQL it can use the unique index of the names
+	 * only with the <code>C</code> collation, otherwise only with an index created by
+	 * <code>CREATE INDEX ON images (name text_pattern_ops)</code>, which the schema update does not create.
+	 *
+	 * @param filter
+	 * @return the specification
+	 */
+	public static Specification<Image> matching(ImageFilter filter) {
+		return (root, query, cb) -> {
+			List<Predicate> predicates = new ArrayList<>();
+			if (filter.names() != null && !filter.names().isEmpty()) {
+				predicates.add(root.get("name").in(filter.names()));
+			}
+			if (filter.prefix() != null && !filter.prefix().isEmpty()) {
+				predicates.add(cb.like(root.get("name"), escapeLike(filter.prefix()) + "%", LIKE_ESCAPE));
+			}
+			if (filter.from() != null) {
+				predicates.add(cb.greaterThanOrEqualTo(root.get("createdAt"), filter.from()));
+			}
+			if (filter.to() != null) {
+				predicates.add(cb.lessThan(root.get("createdAt"), filter.to()));
+			}
+			if (filter.type() != null) {
+				predicates.add(cb.equal(root.get("type"), filter.type()));
+			}
+			return cb.and(predicates.toArray(Predicate[]::new));
+		};
+	}
+
+	/**
+	 * Keyset pagination: images after the given id.
+	 *
+	 * @param id
+	 * @return the specification
+	 */
+	public static Specification<Image> idGreaterThan(Long id) {
+		return (root, query, cb) -> cb.greaterThan(root.get("id"), id);
+	}
+
+	private static String escapeLike(String value) {
+		return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+
+}
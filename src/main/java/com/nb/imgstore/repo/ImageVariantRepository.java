@@ -0,0 +1,16 @@
+package com.nb.imgstore.repo;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.nb.imgstore.model.ImageVariant;
+
+public interface ImageVariantRepository extends JpaRepository<ImageVariant, Long> {
+
+	Optional<ImageVariant> findByImageNameAndWidthAndHeight(String imageName, int width, int height);
+
+	List<ImageVariant> findByImageNameOrderByWidthAsc(String imageName);
+
+}
@@ -0,0 +1,21 @@
+package com.nb.imgstore.repo;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.nb.imgstore.model.ThumbnailJob;
+
+public interface ThumbnailJobRepository extends JpaRepository<ThumbnailJob, Long> {
+
+	Optional<ThumbnailJob> findByImageName(String imageName);
+
+	/**
+	 * Returns the jobs in the given status which are due, the oldest first.
+	 */
+	List<ThumbnailJob> findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(ThumbnailJob.Status status, Instant time, Limit limit);
+
+}
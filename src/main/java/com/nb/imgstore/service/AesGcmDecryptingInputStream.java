@@ -0,0 +1,101 @@
+package com.nb.imgstore.service;
+
+import static com.nb.imgstore.service.EncryptionServiceAesGcm.CHUNK_SIZE;
+import static com.nb.imgstore.service.EncryptionServiceAesGcm.ENCRYPTED_CHUNK_SIZE;
+import static com.nb.imgstore.service.EncryptionServiceAesGcm.HEADER_SIZE;
+import static com.nb.imgstore.service.EncryptionServiceAesGcm.TAG_SIZE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * Decrypts and verifies content in the format of {@link EncryptionServiceAesGcm} chunk by chunk.
+ * <p>
+ * Only a single chunk is held in memory. A tampered or truncated content results in an {@link IOException}, at the
+ * latest when the last chunk is read.
+ */
+class AesGcmDecryptingInputStream extends InputStream {
+	private final EncryptionServiceAesGcm encryptionService;
+	private final InputStream source;
+	private final byte[] encryptedChunk = new byte[ENCRYPTED_CHUNK_SIZE];
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	private byte[] noncePrefix;
+	private int lookahead = -1;
+	private int index;
+	private int position;
+	private int limit;
+	private boolean lastChunkRead;
+
+	AesGcmDecryptingInputStream(EncryptionServiceAesGcm encryptionService, InputStream source) {
+		this.encryptionService = encryptionService;
+		this.source = source;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (position == limit) {
+			if (lastChunkRead) {
+				return -1;
+			}
+			readChunk();
+		}
+		int n = Math.min(len, limit - position);
+		System.arraycopy(chunk, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return limit - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
+	private void readChunk() throws IOException {
+		if (noncePrefix == null) {
+			noncePrefix = readHeader();
+		}
+		int length = 0;
+		if (lookahead >= 0) {
+			encryptedChunk[length++] = (byte) lookahead;
+			lookahead = -1;
+		}
+		length += source.readNBytes(encryptedChunk, length, ENCRYPTED_CHUNK_SIZE - length);
+		if (length == ENCRYPTED_CHUNK_SIZE) {
+			lookahead = source.read();
+		}
+		lastChunkRead = lookahead < 0;
+		if (length < TAG_SIZE) {
+			throw new IOException("Decryption failed: truncated content");
+		}
+		try {
+			limit = encryptionService.openChunk(noncePrefix, index++, lastChunkRead, encryptedChunk, 0, length, chunk, 0);
+			position = 0;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Decryption failed", e);
+		}
+	}
+
+	private byte[] readHeader() throws IOException {
+		try {
+			return EncryptionServiceAesGcm.readHeader(source.readNBytes(HEADER_SIZE));
+		} catch (IllegalStateException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+}
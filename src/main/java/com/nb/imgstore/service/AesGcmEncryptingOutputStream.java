@@ -0,0 +1,89 @@
+package com.nb.imgstore.service;
+
+import static com.nb.imgstore.service.EncryptionServiceAesGcm.CHUNK_SIZE;
+import static com.nb.imgstore.service.EncryptionServiceAesGcm.ENCRYPTED_CHUNK_SIZE;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * Encrypts the written content chunk by chunk in the format of {@link EncryptionServiceAesGcm}.
+ * <p>
+ * A chunk is written only when it is full and more content arrives, or the stream is closed, since the last chunk is
+ * authenticated differently. Closing the stream is mandatory, it also closes the target.
+ */
+class AesGcmEncryptingOutputStream extends OutputStream {
+	private final EncryptionServiceAesGcm encryptionService;
+	private final OutputStream target;
+	private final byte[] header;
+	private final byte[] noncePrefix;
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	private final byte[] encryptedChunk = new byte[ENCRYPTED_CHUNK_SIZE];
+	private int count;
+	private int index;
+	private boolean closed;
+
+	AesGcmEncryptingOutputStream(EncryptionServiceAesGcm encryptionService, OutputStream target, byte[] header, byte[] noncePrefix) {
+		this.encryptionService = encryptionService;
+		this.target = target;
+		this.header = header;
+		this.noncePrefix = noncePrefix;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			if (count == CHUNK_SIZE) {
+				writeChunk(false);
+			}
+			int n = Math.min(len, CHUNK_SIZE - count);
+			System.arraycopy(b, off, chunk, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		target.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try (target) {
+			writeChunk(true);
+		}
+	}
+
+	private void writeChunk(boolean last) throws IOException {
+		if (index == 0) {
+			target.write(header);
+		}
+		try {
+			int length = encryptionService.sealChunk(noncePrefix, index++, last, chunk, 0, count, encryptedChunk, 0);
+			target.write(encryptedChunk, 0, length);
+			count = 0;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Encryption failed", e);
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+}
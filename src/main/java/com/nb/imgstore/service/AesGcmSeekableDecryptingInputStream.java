@@ -0,0 +1,127 @@
+package com.nb.imgstore.service;
+
+import static com.nb.imgstore.service.EncryptionServiceAesGcm.CHUNK_SIZE;
+import static com.nb.imgstore.service.EncryptionServiceAesGcm.ENCRYPTED_CHUNK_SIZE;
+import static com.nb.imgstore.service.EncryptionServiceAesGcm.HEADER_SIZE;
+import static com.nb.imgstore.service.EncryptionServiceAesGcm.TAG_SIZE;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Decrypts content in the format of {@link EncryptionServiceAesGcm} from a seekable channel.
+ * <p>
+ * Chunks have a fixed size, so {@link #skip(long)} jumps straight to the chunk holding the target position: only
+ * the chunks actually read are decrypted, which makes serving byte ranges cheap.
+ */
+class AesGcmSeekableDecryptingInputStream extends InputStream {
+	private final EncryptionServiceAesGcm encryptionService;
+	private final SeekableByteChannel source;
+	private final byte[] encryptedChunk = new byte[ENCRYPTED_CHUNK_SIZE];
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	private byte[] noncePrefix;
+	private long encryptedSize;
+	private int chunkCount;
+	private long size;
+	private long position;
+	private int loadedChunk = -1;
+	private int loadedChunkLength;
+
+	AesGcmSeekableDecryptingInputStream(EncryptionServiceAesGcm encryptionService, SeekableByteChannel source) {
+		this.encryptionService = encryptionService;
+		this.source = source;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		init();
+		if (len == 0) {
+			return 0;
+		}
+		if (position >= size) {
+			return -1;
+		}
+		int index = (int) (position / CHUNK_SIZE);
+		if (index != loadedChunk) {
+			loadChunk(index);
+		}
+		int offset = (int) (position % CHUNK_SIZE);
+		int n = Math.min(len, loadedChunkLength - offset);
+		System.arraycopy(chunk, offset, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		init();
+		long skipped = Math.max(0, Math.min(n, size - position));
+		position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		init();
+		return (int) Math.min(Integer.MAX_VALUE, size - position);
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
+	private void init() throws IOException {
+		if (noncePrefix != null) {
+			return;
+		}
+		encryptedSize = source.size();
+		long encryptedContentSize = encryptedSize - HEADER_SIZE;
+		long chunks = (encryptedContentSize + ENCRYPTED_CHUNK_SIZE - 1) / ENCRYPTED_CHUNK_SIZE;
+		if (chunks == 0 || encryptedContentSize - (chunks - 1) * ENCRYPTED_CHUNK_SIZE < TAG_SIZE) {
+			throw new IOException("Decryption failed: truncated content");
+		}
+		chunkCount = (int) chunks;
+		size = encryptedContentSize - chunks * TAG_SIZE;
+		byte[] header = new byte[HEADER_SIZE];
+		readFully(0, header, HEADER_SIZE);
+		try {
+			noncePrefix = EncryptionServiceAesGcm.readHeader(header);
+		} catch (IllegalStateException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private void loadChunk(int index) throws IOException {
+		long offset = HEADER_SIZE + (long) index * ENCRYPTED_CHUNK_SIZE;
+		int length = (int) Math.min(ENCRYPTED_CHUNK_SIZE, encryptedSize - offset);
+		readFully(offset, encryptedChunk, length);
+		try {
+			loadedChunkLength = encryptionService.openChunk(noncePrefix, index, index == chunkCount - 1, encryptedChunk, 0, length, chunk, 0);
+			loadedChunk = index;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Decryption failed", e);
+		}
+	}
+
+	private void readFully(long offset, byte[] target, int length) throws IOException {
+		source.position(offset);
+		ByteBuffer buffer = ByteBuffer.wrap(target, 0, length);
+		while (buffer.hasRemaining()) {
+			if (source.read(buffer) < 0) {
+				throw new EOFException("Decryption failed: truncated content");
+			}
+		}
+	}
+
+}
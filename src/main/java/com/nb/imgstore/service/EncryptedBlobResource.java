@@ -0,0 +1,53 @@
+package com.nb.imgstore.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.core.io.AbstractResource;
+
+import com.nb.imgstore.extservice.blob.BlobStore;
+import com.nb.imgstore.model.Image;
+
+/**
+ * Decrypted content of an image, read directly from the blob store.
+ * <p>
+ * Every {@link #getInputStream()} opens the blob on its own, skipping in the stream seeks in the blob,
+ * so byte ranges are served by decrypting only the chunks they cover.
+ */
+class EncryptedBlobResource extends AbstractResource {
+	private final BlobStore blobStore;
+	private final EncryptionService encryptionService;
+	private final Image image;
+
+	EncryptedBlobResource(BlobStore blobStore, EncryptionService encryptionService, Image image) {
+		this.blobStore = blobStore;
+		this.encryptionService = encryptionService;
+		this.image = image;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return encryptionService.seekableDecryptingStream(blobStore.openChannel(image.getBlobKey()));
+	}
+
+	@Override
+	public long contentLength() throws IOException {
+		return image.getSize() != null ? image.getSize() : super.contentLength();
+	}
+
+	@Override
+	public boolean exists() {
+		return true;
+	}
+
+	@Override
+	public String getFilename() {
+		return image.getName();
+	}
+
+	@Override
+	public String getDescription() {
+		return "Image [" + image.getName() + "]";
+	}
+
+}
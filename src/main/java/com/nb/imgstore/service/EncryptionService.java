@@ -1,9 +1,67 @@
 package com.nb.imgstore.service;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.commons.io.IOUtils;
+
 public interface EncryptionService {
 
 	byte[] encrypt(byte[] data);
 
 	byte[] decrypt(byte[] encryptedData);
 
+	/**
+	 * Returns a stream which encrypts the content written into it to the target.
+	 * <p>
+	 * The returned stream must be closed to complete the encryption, it closes the target too.
+	 * 
+	 * @param target - receives the encrypted content
+	 * @return encrypting stream
+	 */
+	OutputStream encryptingStream(OutputStream target);
+
+	/**
+	 * Returns a stream which decrypts the content of the source.
+	 * 
+	 * @param source - encrypted content
+	 * @return decrypting stream
+	 */
+	InputStream decryptingStream(InputStream source);
+
+	/**
+	 * Returns a stream which decrypts the content of a seekable source.
+	 * <p>
+	 * Implementations may make {@link InputStream#skip(long)} cheap by seeking the source instead of decrypting the
+	 * skipped content. By default the skipped content is decrypted and discarded, so skip always reaches the position
+	 * (or the end). Closing the stream closes the source.
+	 * 
+	 * @param source - encrypted content
+	 * @return decrypting stream
+	 */
+	default InputStream seekableDecryptingStream(SeekableByteChannel source) {
+		return new FilterInputStream(decryptingStream(Channels.newInputStream(source))) {
+			@Override
+			public long skip(long n) throws IOException {
+				// cipher streams skip only their already decrypted buffer
+				return IOUtils.skip(in, n);
+			}
+		};
+	}
+
+	/**
+	 * Channel variant of {@link #encryptingStream(OutputStream)}.
+	 * 
+	 * @param target - receives the encrypted content
+	 * @return encrypting channel
+	 */
+	default WritableByteChannel encryptingChannel(WritableByteChannel target) {
+		return Channels.newChannel(encryptingStream(Channels.newOutputStream(target)));
+	}
+
 }
@@ -1,6 +1,8 @@
 package com.nb.imgstore.service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.Key;
@@ -9,17 +11,27 @@ import java.util.Base64;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 
+/**
+ * Legacy AES ECB encryption, the algorithm used before {@link EncryptionServiceAesGcm}.
+ * <p>
+ * It is selected by <code>app.encryption.algorithm=aes</code> instead of the AES-GCM one, never next to it: it is not a
+ * fallback for reading contents encrypted by the other algorithm.
+ */
 @Service
+@ConditionalOnProperty(name = "app.encryption.algorithm", havingValue = "aes")
 class EncryptionServiceAes implements EncryptionService {
-	private static final String ALGORITHM = "AES"; // TODO switch to a more secure mode
+	private static final String ALGORITHM = "AES";
 	private final Key key;
 
 	EncryptionServiceAes(@Value("classpath:/cipher/secret.key") Resource res) throws IOException {
@@ -51,6 +63,16 @@ class EncryptionServiceAes implements EncryptionService {
 		}
 	}
 
+	@Override
+	public OutputStream encryptingStream(OutputStream target) {
+		return new CipherOutputStream(target, initCipher(Cipher.ENCRYPT_MODE));
+	}
+
+	@Override
+	public InputStream decryptingStream(InputStream source) {
+		return new CipherInputStream(source, initCipher(Cipher.DECRYPT_MODE));
+	}
+
 	public String encryptString(String data) {
 		byte[] encrypted = encrypt(data.getBytes(StandardCharsets.UTF_8));
 		return Base64.getEncoder().encodeToString(encrypted);
@@ -62,4 +84,14 @@ class EncryptionServiceAes implements EncryptionService {
 		return new String(decrypted, StandardCharsets.UTF_8);
 	}
 
+	private Cipher initCipher(int mode) {
+		try {
+			Cipher c = Cipher.getInstance(ALGORITHM);
+			c.init(mode, key);
+			return c;
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
+			throw new IllegalStateException("Cipher initialization failed", e);
+		}
+	}
+
 }
@@ -0,0 +1,182 @@
+package com.nb.imgstore.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+/**
+ * AES-GCM encryption with chunked, authenticated framing, so that the content can be processed as a stream.
+ * <p>
+ * Format: <code>version (1 byte) | nonce prefix (8 bytes) | chunk 0 | chunk 1 | ... | last chunk</code>
+ * <ul>
+ * <li>every chunk is the GCM ciphertext of {@value #CHUNK_SIZE} plaintext bytes plus a {@value #TAG_SIZE} bytes tag, except the last one which
+ * can be shorter</li>
+ * <li>the nonce of a chunk is the random prefix of the content followed by the chunk index (4 bytes)</li>
+ * <li>the last chunk is authenticated with a different AAD, so truncating or extending the content is detected</li>
+ * </ul>
+ * <code>Cipher</code> instances are cached per thread, since the provider lookup of <code>Cipher.getInstance</code> is expensive.
+ */
+@Service
+@ConditionalOnProperty(name = "app.encryption.algorithm", havingValue = "aes-gcm", matchIfMissing = true)
+class EncryptionServiceAesGcm implements EncryptionService {
+	static final byte VERSION = 1;
+	static final int CHUNK_SIZE = 64 * 1024;
+	static final int TAG_SIZE = 16;
+	static final int NONCE_PREFIX_SIZE = 8;
+	static final int HEADER_SIZE = 1 + NONCE_PREFIX_SIZE;
+	static final int ENCRYPTED_CHUNK_SIZE = CHUNK_SIZE + TAG_SIZE;
+	private static final String ALGORITHM = "AES";
+	private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+	private static final byte[] AAD_CHUNK = { 0 };
+	private static final byte[] AAD_LAST_CHUNK = { 1 };
+
+	private final Key key;
+	private final SecureRandom random = new SecureRandom();
+	private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(EncryptionServiceAesGcm::newCipher);
+
+	EncryptionServiceAesGcm(@Value("classpath:/cipher/secret.key") Resource res) throws IOException {
+		if (res == null || !res.exists()) {
+			throw new IllegalStateException("/cipher/secret.key does not exist");
+		}
+		this.key = new SecretKeySpec(res.getContentAsByteArray(), ALGORITHM);
+	}
+
+	@Override
+	public byte[] encrypt(byte[] data) {
+		int chunks = chunkCount(data.length);
+		byte[] result = new byte[HEADER_SIZE + data.length + chunks * TAG_SIZE];
+		byte[] noncePrefix = writeHeader(result);
+		try {
+			int out = HEADER_SIZE;
+			for (int i = 0; i < chunks; i++) {
+				int offset = i * CHUNK_SIZE;
+				int length = Math.min(CHUNK_SIZE, data.length - offset);
+				out += sealChunk(noncePrefix, i, i == chunks - 1, data, offset, length, result, out);
+			}
+			return result;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Encryption failed", e);
+		}
+	}
+
+	@Override
+	public byte[] decrypt(byte[] encryptedData) {
+		byte[] noncePrefix = readHeader(encryptedData);
+		int encryptedLength = encryptedData.length - HEADER_SIZE;
+		int chunks = (encryptedLength + ENCRYPTED_CHUNK_SIZE - 1) / ENCRYPTED_CHUNK_SIZE;
+		if (chunks == 0 || encryptedLength - (chunks - 1) * ENCRYPTED_CHUNK_SIZE < TAG_SIZE) {
+			throw new IllegalStateException("Decryption failed: truncated content");
+		}
+		byte[] result = new byte[encryptedLength - chunks * TAG_SIZE];
+		try {
+			int out = 0;
+			for (int i = 0; i < chunks; i++) {
+				int offset = HEADER_SIZE + i * ENCRYPTED_CHUNK_SIZE;
+				int length = Math.min(ENCRYPTED_CHUNK_SIZE, encryptedData.length - offset);
+				out += openChunk(noncePrefix, i, i == chunks - 1, encryptedData, offset, length, result, out);
+			}
+			return result;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Decryption failed", e);
+		}
+	}
+
+	@Override
+	public OutputStream encryptingStream(OutputStream target) {
+		byte[] header = new byte[HEADER_SIZE];
+		byte[] noncePrefix = writeHeader(header);
+		return new AesGcmEncryptingOutputStream(this, target, header, noncePrefix);
+	}
+
+	@Override
+	public InputStream decryptingStream(InputStream source) {
+		return new AesGcmDecryptingInputStream(this, source);
+	}
+
+	@Override
+	public InputStream seekableDecryptingStream(SeekableByteChannel source) {
+		return new AesGcmSeekableDecryptingInputStream(this, source);
+	}
+
+	/**
+	 * Returns the size of the encrypted content for the given plaintext size.
+	 */
+	static long encryptedSize(long size) {
+		return HEADER_SIZE + size + (long) chunkCount(size) * TAG_SIZE;
+	}
+
+	/**
+	 * Encrypts a chunk into the output array, returns the number of bytes written.
+	 */
+	int sealChunk(byte[] noncePrefix, int index, boolean last, byte[] in, int inOffset, int length, byte[] out, int outOffset)
+			throws GeneralSecurityException {
+		Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, noncePrefix, index, last);
+		return cipher.doFinal(in, inOffset, length, out, outOffset);
+	}
+
+	/**
+	 * Decrypts and verifies a chunk into the output array, returns the number of bytes written.
+	 */
+	int openChunk(byte[] noncePrefix, int index, boolean last, byte[] in, int inOffset, int length, byte[] out, int outOffset)
+			throws GeneralSecurityException {
+		Cipher cipher = initCipher(Cipher.DECRYPT_MODE, noncePrefix, index, last);
+		return cipher.doFinal(in, inOffset, length, out, outOffset);
+	}
+
+	/**
+	 * Validates the header and returns the nonce prefix.
+	 */
+	static byte[] readHeader(byte[] header) {
+		if (header.length < HEADER_SIZE || header[0] != VERSION) {
+			throw new IllegalStateException("Decryption failed: unknown format");
+		}
+		byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+		System.arraycopy(header, 1, noncePrefix, 0, NONCE_PREFIX_SIZE);
+		return noncePrefix;
+	}
+
+	private byte[] writeHeader(byte[] target) {
+		byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+		random.nextBytes(noncePrefix);
+		target[0] = VERSION;
+		System.arraycopy(noncePrefix, 0, target, 1, NONCE_PREFIX_SIZE);
+		return noncePrefix;
+	}
+
+	private Cipher initCipher(int mode, byte[] noncePrefix, int index, boolean last) throws GeneralSecurityException {
+		byte[] nonce = ByteBuffer.allocate(NONCE_PREFIX_SIZE + Integer.BYTES).put(noncePrefix).putInt(index).array();
+		Cipher cipher = ciphers.get();
+		cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+		cipher.updateAAD(last ? AAD_LAST_CHUNK : AAD_CHUNK);
+		return cipher;
+	}
+
+	private static int chunkCount(long size) {
+		return (int) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+	}
+
+	private static Cipher newCipher() {
+		try {
+			return Cipher.getInstance(TRANSFORMATION);
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+			throw new IllegalStateException("Cipher not available: " + TRANSFORMATION, e);
+		}
+	}
+
+}
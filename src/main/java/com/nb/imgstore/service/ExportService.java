@@ -0,0 +1,207 @@
+package com.nb.imgstore.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import com.nb.imgstore.exception.NotFoundException;
+import com.nb.imgstore.model.ExportJob;
+import com.nb.imgstore.model.ExportStatus;
+import com.nb.imgstore.repo.ExportJobRepository;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Exports all the images into zip files on disk in the background, for libraries too large to zip within a request.
+ * <p>
+ * An export is reused as long as the library version (see {@link ImageStoreService#findLibraryVersion()}) is the same,
+ * so requesting it again does not redo the work until new images are uploaded.<br>
+ * When an export completes, the files of the older exports are deleted after a grace period
+ * (<code>app.export.grace-period</code>), so that their downloads already in progress are not broken.
+ * <p>
+ * Exports are built one by one on a single thread under <code>app.export.root</code>, jobs left unfinished by a
+ * restart are resumed at startup.
+ */
+@Slf4j
+@Service
+public class ExportService {
+	private static final Set<ExportJob.Status> REUSABLE = EnumSet.of(ExportJob.Status.PENDING, ExportJob.Status.RUNNING,
+			ExportJob.Status.DONE);
+	private static final Set<ExportJob.Status> UNFINISHED = EnumSet.of(ExportJob.Status.PENDING, ExportJob.Status.RUNNING);
+	private static final int MAX_ERROR_LENGTH = 1000;
+
+	private final ExportJobRepository exportJobRepository;
+	private final ImageStoreService imageStoreService;
+	private final PipelineMetrics pipelineMetrics;
+	private final Path root;
+	private final Duration gracePeriod;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("export-"));
+
+	ExportService(ExportJobRepository exportJobRepository, ImageStoreService imageStoreService,
+			PipelineMetrics pipelineMetrics, @Value("${app.export.root}") Path root,
+			@Value("${app.export.grace-period:10m}") Duration gracePeriod) {
+		this.exportJobRepository = exportJobRepository;
+		this.imageStoreService = imageStoreService;
+		this.pipelineMetrics = pipelineMetrics;
+		this.root = root;
+		this.gracePeriod = gracePeriod;
+		try {
+			Files.createDirectories(root);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to create export directory: " + root, e);
+		}
+		log.info("export root: {} | grace period: {}", root, gracePeriod);
+	}
+
+	/**
+	 * Starts the export of the current library, or returns the export already started or done for it.
+	 *
+	 * @return the export status
+	 */
+	public synchronized ExportStatus createExport() {
+		String libraryVersion = imageStoreService.findLibraryVersion();
+		Optional<ExportJob> existing = exportJobRepository.findFirstByLibraryVersionAndStatusInOrderByIdDesc(libraryVersion, REUSABLE)
+				.filter(job -> job.getStatus() != ExportJob.Status.DONE || Files.exists(resolve(job)));
+		if (existing.isPresent()) {
+			log.debug("reusing export: {} | library version: {}", existing.get().getId(), libraryVersion);
+			return ExportStatus.of(existing.get());
+		}
+		ExportJob job = exportJobRepository.save(ExportJob.builder()
+				.status(ExportJob.Status.PENDING)
+				.libraryVersion(libraryVersion)
+				.createdAt(Instant.now())
+				.build());
+		log.debug("export created: {} | library version: {}", job.getId(), libraryVersion);
+		ExportStatus status = ExportStatus.of(job);
+		executor.execute(() -> process(job));
+		return status;
+	}
+
+	/**
+	 * Returns the status of an export.
+	 *
+	 * @param id
+	 * @return the export status
+	 */
+	public ExportStatus getStatus(Long id) {
+		return ExportStatus.of(findJob(id));
+	}
+
+	/**
+	 * Returns the zip file of a completed export.
+	 *
+	 * @param id
+	 * @return the zip file
+	 * @throws NotFoundException when the export does not exist or it is not done
+	 */
+	public Path getFile(Long id) {
+		ExportJob job = findJob(id);
+		Path file = resolve(job);
+		if (job.getStatus() != ExportJob.Status.DONE || !Files.exists(file)) {
+			throw new NotFoundException("Export file not available: " + id + " | status: " + job.getStatus());
+		}
+		pipelineMetrics.countOut(job.getSize());
+		return file;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	void resumeUnfinishedExports() {
+		List<ExportJob> jobs = exportJobRepository.findByStatusIn(UNFINISHED);
+		jobs.forEach(job -> {
+			log.info("resuming export: {}", job.getId());
+			executor.execute(() -> process(job));
+		});
+	}
+
+	/**
+	 * Expires the exports replaced by an export completed longer than the grace period ago, and deletes their files.
+	 */
+	@Scheduled(fixedDelayString = "${app.export.expire-interval:PT1M}", initialDelayString = "${app.export.expire-interval:PT1M}")
+	void expireReplacedExports() {
+		Instant replacedBefore = Instant.now().minus(gracePeriod);
+		exportJobRepository.findFirstByStatusAndCompletedAtBeforeOrderByIdDesc(ExportJob.Status.DONE, replacedBefore)
+				.ifPresent(this::expireOlderExports);
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private ExportJob findJob(Long id) {
+		return exportJobRepository.findById(id)
+				.orElseThrow(() -> new NotFoundException("Export not found: " + id));
+	}
+
+	/**
+	 * The zip is written to a temp file and renamed when it is complete, so a done export always has a whole file.
+	 */
+	void process(ExportJob job) {
+		job.setStatus(ExportJob.Status.RUNNING);
+		exportJobRepository.save(job);
+		Path tempFile = root.resolve(job.getId() + ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(tempFile)) {
+				imageStoreService.zipAll(out);
+			}
+			Path file = resolve(job);
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			job.setSize(Files.size(file));
+			job.setStatus(ExportJob.Status.DONE);
+			job.setCompletedAt(Instant.now());
+			exportJobRepository.save(job);
+			log.debug("export done: {} | size: {}", job.getId(), job.getSize());
+		} catch (IOException | RuntimeException e) {
+			log.error("export failed: {}", job.getId(), e);
+			deleteFile(tempFile);
+			job.setStatus(ExportJob.Status.FAILED);
+			job.setLastError(truncate(e.getMessage()));
+			job.setCompletedAt(Instant.now());
+			exportJobRepository.save(job);
+		}
+	}
+
+	private void expireOlderExports(ExportJob job) {
+		for (ExportJob older : exportJobRepository.findByStatusAndIdLessThan(ExportJob.Status.DONE, job.getId())) {
+			deleteFile(resolve(older));
+			older.setStatus(ExportJob.Status.EXPIRED);
+			exportJobRepository.save(older);
+			log.debug("export expired: {}", older.getId());
+		}
+	}
+
+	private Path resolve(ExportJob job) {
+		return root.resolve(job.getId() + ".zip");
+	}
+
+	private static void deleteFile(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warn("unable to delete export file: {}", file, e);
+		}
+	}
+
+	private static String truncate(String message) {
+		return message != null && message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+	}
+
+}
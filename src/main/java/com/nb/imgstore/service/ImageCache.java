@@ -0,0 +1,84 @@
+package com.nb.imgstore.service;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.nb.imgstore.model.ImageMetadata;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory cache of images by image name: their metadata and decrypted contents.
+ * <p>
+ * The cache is bounded by the total size of the cached contents (<code>app.image-cache.max-size</code>), the eviction
+ * policy is W-TinyLFU, so that the few frequently downloaded images stay in the cache.<br>
+ * Contents larger than <code>app.image-cache.max-entry-size</code> are never cached, only the metadata of those images.
+ * Since images are immutable, entries never need to be invalidated.
+ */
+@Slf4j
+@Component
+class ImageCache {
+	// rough heap size of the metadata of an entry
+	private static final int METADATA_WEIGHT = 512;
+	private final Cache<String, CachedImage> cache;
+	private final long maxEntrySize;
+
+	ImageCache(@Value("${app.image-cache.max-size:256MB}") DataSize maxSize,
+			@Value("${app.image-cache.max-entry-size:16MB}") DataSize maxEntrySize,
+			MeterRegistry meterRegistry) {
+		this.cache = Caffeine.newBuilder()
+				.maximumWeight(maxSize.toBytes())
+				.weigher((String name, CachedImage image) -> METADATA_WEIGHT + (image.content() == null ? 0 : image.content().length))
+				.recordStats()
+				.build();
+		this.maxEntrySize = maxEntrySize.toBytes();
+		CaffeineCacheMetrics.monitor(meterRegistry, cache, "images");
+		Gauge.builder("imgstore.image-cache.size", cache, c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L))
+				.baseUnit("bytes")
+				.register(meterRegistry);
+		log.info("image cache max size: {} | max entry size: {}", maxSize, maxEntrySize);
+	}
+
+	Optional<CachedImage> get(String name) {
+		return Optional.ofNullable(cache.getIfPresent(name));
+	}
+
+	/**
+	 * Returns the cached image, or loads it. Concurrent requests of a missing image load it only once.
+	 *
+	 * @param name
+	 * @param loader - loads the image by its name, its content only if it {@link #fits(Long)}
+	 * @return the cached image
+	 */
+	CachedImage get(String name, Function<String, CachedImage> loader) {
+		return cache.get(name, loader);
+	}
+
+	/**
+	 * @param size - content size in bytes, <code>null</code> if unknown
+	 * @return whether a content of the size is cached
+	 */
+	boolean fits(Long size) {
+		return size != null && size <= maxEntrySize;
+	}
+
+	/**
+	 * An image in the cache.
+	 *
+	 * @param metadata - metadata of the image
+	 * @param blobKey  - key of the encrypted content in the blob store
+	 * @param content  - decrypted content, <code>null</code> if it does not fit into the cache
+	 */
+	record CachedImage(ImageMetadata metadata, String blobKey, byte[] content) {
+	}
+
+}
@@ -1,20 +1,61 @@
 package com.nb.imgstore.service;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.nb.imgstore.exception.InvalidImageException;
 import com.nb.imgstore.exception.NotFoundException;
+import com.nb.imgstore.extservice.blob.BlobStore;
 import com.nb.imgstore.extservice.img.ImageConverter;
+import com.nb.imgstore.extservice.img.ImageHeader;
 import com.nb.imgstore.model.Image;
+import com.nb.imgstore.model.ImageContent;
+import com.nb.imgstore.model.ImageFilter;
+import com.nb.imgstore.model.ImageMetadata;
+import com.nb.imgstore.repo.ImageContentRepository;
 import com.nb.imgstore.repo.ImageRepository;
+import com.nb.imgstore.repo.ImageSpecifications;
+import com.nb.imgstore.service.ImageCache.CachedImage;
+import com.nb.imgstore.service.PipelineMetrics.Stage;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -24,61 +65,357 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor
 public class ImageStoreService {
 	private static final Set<String> ALLOWED_TYPES = Set.of("image/png", "image/jpeg");
+	private static final String TEMP_FILE_PREFIX = "imgstore-upload-";
 	private final EncryptionService encryptionService;
 	private final ImageConverter imageConverter;
 	private final ImageZipService imageZipService;
 	private final ImageRepository imageRepository;
+	private final ImageContentRepository imageContentRepository;
+	private final BlobStore blobStore;
+	private final UploadExecutor uploadExecutor;
+	private final ImageCache imageCache;
+	private final VariantCache variantCache;
+	private final ThumbnailService thumbnailService;
+	private final TransactionTemplate transactionTemplate;
+	private final PipelineMetrics pipelineMetrics;
+
+	@Value("${app.zip.page-size:100}")
+	private int zipPageSize;
+
+	@Value("${app.image-converter.scale.max-dimension:5000}")
+	private int maxDim;
 
 	/**
 	 * Returns an image file content by its generated (UUID) name.
+	 * <p>
+	 * Frequently downloaded images are served from an in-memory cache, without touching the DB and decryption.
+	 * Concurrent downloads of a missing image load it only once.
 	 * 
 	 * @param fileName
 	 * @return the image file content
 	 */
-	@Transactional
 	public byte[] download(String fileName) {
-		return imageRepository.findByName(fileName)
-				.map(Image::getData)
-				.map(encryptionService::decrypt)
-				.orElseThrow(() -> new NotFoundException("Image not found: " + fileName));
+		CachedImage image = imageCache.get(fileName, this::loadCached);
+		byte[] content = image.content() != null ? image.content() : decrypt(blobStore.get(image.blobKey()));
+		pipelineMetrics.countOut(content.length);
+		return content;
+	}
+
+	/**
+	 * Returns a resized variant of an image by its generated (UUID) name, keeping the ratio.
+	 * <p>
+	 * Pre-generated thumbnails are served as they are stored. Other variants are generated on the first request and
+	 * kept in a disk cache, concurrent requests of the same variant generate it only once.<br>
+	 * A missing boundary defaults to the max dimension. The original is returned when it is already within the
+	 * boundaries (decided by its header), it is not copied into the variant cache.
+	 * 
+	 * @param fileName
+	 * @param width    - max width, optional
+	 * @param height   - max height, optional
+	 * @return the image file content
+	 */
+	public byte[] downloadVariant(String fileName, Integer width, Integer height) {
+		int boundedWidth = bound(width);
+		int boundedHeight = bound(height);
+		if (boundedWidth == maxDim && boundedHeight == maxDim) {
+			// originals are scaled to the max dimension at upload
+			return download(fileName);
+		}
+		Optional<byte[]> thumbnail = thumbnailService.findThumbnail(fileName, boundedWidth, boundedHeight);
+		if (thumbnail.isEmpty() && isWithin(fileName, boundedWidth, boundedHeight)) {
+			log.debug("skip scaling variant, image within bounds: {}", fileName);
+			return download(fileName);
+		}
+		byte[] content = thumbnail.orElseGet(() -> variantCache.get(fileName + "@" + boundedWidth + "x" + boundedHeight,
+				() -> scaleVariant(fileName, boundedWidth, boundedHeight)));
+		pipelineMetrics.countOut(content.length);
+		return content;
+	}
+
+	/**
+	 * Returns an image file content by its generated (UUID) name as a resource, for serving byte ranges of it.
+	 * <p>
+	 * Cached images are served from memory, others are decrypted from the blob store on the fly:
+	 * only the chunks covering the requested ranges are read and decrypted.
+	 * 
+	 * @param fileName
+	 * @return the image file content
+	 */
+	public Resource downloadResource(String fileName) {
+		return imageCache.get(fileName)
+				.map(CachedImage::content)
+				.<Resource>map(ByteArrayResource::new)
+				.orElseGet(() -> findByName(fileName)
+						.map(image -> new EncryptedBlobResource(blobStore, encryptionService, image))
+						.orElseThrow(() -> new NotFoundException("Image not found: " + fileName)));
+	}
+
+	/**
+	 * Returns the metadata of an image by its generated (UUID) name, without touching the image content.
+	 * <p>
+	 * The metadata of cached images is served from the cache, without touching the DB.
+	 * 
+	 * @param fileName
+	 * @return the image metadata
+	 */
+	public ImageMetadata findMetadata(String fileName) {
+		return imageCache.get(fileName)
+				.map(CachedImage::metadata)
+				.orElseGet(() -> pipelineMetrics.time(Stage.DB, () -> imageRepository.findMetadataByName(fileName))
+						.orElseThrow(() -> new NotFoundException("Image not found: " + fileName)));
+	}
+
+	/**
+	 * Returns a page of image metadata, without touching the image contents.
+	 * 
+	 * @param pageable
+	 * @return page of image metadata
+	 */
+	public Page<ImageMetadata> findMetadata(Pageable pageable) {
+		return pipelineMetrics.time(Stage.DB, () -> imageRepository.findAllBy(pageable));
+	}
+
+	/**
+	 * Writes a zip file content of all the images into the given output stream, as a download.
+	 * 
+	 * @param out - target of the zip file content
+	 * @see #zipAll(OutputStream)
+	 */
+	public void downloadAll(OutputStream out) {
+		download(this::findPageAfter, out);
 	}
 
 	/**
-	 * Returns a zip file content of all the images.
+	 * Writes a zip file content of the images matching the filter into the given output stream, as a download.
+	 * <p>
+	 * The matching images are fetched page by page, like by {@link #zipAll(OutputStream)}.
 	 * 
-	 * @return zip file content
+	 * @param filter
+	 * @param out    - target of the zip file content
 	 */
-	@Transactional
-	public byte[] downloadAll() {
-		List<Image> images = imageRepository.findAll();
-		return imageZipService.zipAll(images);
+	public void downloadZip(ImageFilter filter, OutputStream out) {
+		Specification<Image> matching = ImageSpecifications.matching(filter);
+		download(id -> findPageAfter(matching, id), out);
+	}
+
+	/**
+	 * Writes a zip file content of all the images into the given output stream.
+	 * <p>
+	 * Images are fetched page by page, so the whole library is never loaded into memory.<br>
+	 * Intentionally not transactional: each page is loaded and detached on its own.
+	 * 
+	 * @param out - target of the zip file content
+	 */
+	public void zipAll(OutputStream out) {
+		zip(this::findPageAfter, out);
+	}
+
+	/**
+	 * Returns the version of the image library, it changes by every upload.
+	 * 
+	 * @return the library version
+	 */
+	public String findLibraryVersion() {
+		return pipelineMetrics.time(Stage.DB, imageRepository::findLibraryVersion);
 	}
 
 	/**
 	 * Uploads images by renaming them to a generated (UUID) name.
 	 * <p>
-	 * It shrinks large images and encrypts them before persisting.
+	 * It shrinks large images and encrypts them before persisting.<br>
+	 * Images within the max dimension (decided by their header) are not passed to the image converter at all.<br>
+	 * The encrypted content goes to the blob store, only the metadata is saved in the DB.
+	 * <p>
+	 * Uploading the same content again skips scaling and encryption, the new image shares the stored content
+	 * (identified by the SHA-256 hash of the uploaded content).
+	 * <p>
+	 * All files are validated first, then processed in parallel and saved in a single transaction.<br>
+	 * The thumbnails are generated in the background, after the transaction commits.
 	 * 
 	 * @param files
 	 * @return the generated image names
 	 */
 	public List<String> upload(MultipartFile[] files) {
-		return Arrays.stream(files)
-				.map(file -> toImage(file))
-				.map(this::saveImage)
-				.toList();
-	}
-
-	private Image toImage(MultipartFile imageFile) {
-		validateFile(imageFile);
-		String fileName = generateFileName(imageFile);
-		byte[] content = getImageContent(imageFile);
-		byte[] scaledContent = imageConverter.scale(content);
-		return Image.builder()
-				.name(fileName)
-				.type(imageFile.getContentType())
-				.data(encryptionService.encrypt(scaledContent))
-				.build();
+		List<MultipartFile> imageFiles = Arrays.asList(files);
+		pipelineMetrics.time(Stage.VALIDATE, () -> imageFiles.forEach(this::validateFile));
+		// when a file fails, the contents already stored for the other files are not saved
+		List<ProcessedImage> images = uploadExecutor.invokeAll(imageFiles, this::toImage,
+				processedImages -> deleteBlobs(newBlobKeys(processedImages)));
+		return pipelineMetrics.time(Stage.SAVE, () -> saveImages(images));
+	}
+
+	private int bound(Integer dimension) {
+		return dimension == null ? maxDim : Math.min(dimension, maxDim);
+	}
+
+	/**
+	 * Only the header is read: cached images from memory, others by decrypting the first chunk of the content.<br>
+	 * An unrecognized header is treated as out of bounds, the image converter decides about it.
+	 */
+	private boolean isWithin(String fileName, int width, int height) {
+		try (InputStream in = new BufferedInputStream(downloadResource(fileName).getInputStream())) {
+			return ImageHeader.read(in).map(header -> header.isWithin(width, height)).orElse(false);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read image: " + fileName, e);
+		}
+	}
+
+	/**
+	 * The original is not put into the image cache, generating thumbnails should not evict the hot images.
+	 */
+	private byte[] scaleVariant(String fileName, int width, int height) {
+		byte[] original = imageCache.get(fileName).map(CachedImage::content).orElseGet(() -> load(fileName));
+		log.debug("scaling variant: {} -> {}x{}", fileName, width, height);
+		pipelineMetrics.recordSize(Stage.SCALE, original.length);
+		return pipelineMetrics.time(Stage.SCALE, () -> imageConverter.scale(original, width, height));
+	}
+
+	private byte[] load(String fileName) {
+		return findByName(fileName)
+				.map(Image::getBlobKey)
+				.map(blobStore::get)
+				.map(this::decrypt)
+				.orElseThrow(() -> new NotFoundException("Image not found: " + fileName));
+	}
+
+	/**
+	 * Contents larger than the max entry size of the cache are not decrypted here, only their metadata is cached.
+	 */
+	private CachedImage loadCached(String fileName) {
+		Image image = findByName(fileName).orElseThrow(() -> new NotFoundException("Image not found: " + fileName));
+		ImageMetadata metadata = new ImageMetadata(image.getName(), image.getType(), image.getSize(), image.getCreatedAt(),
+				image.getContentHash());
+		byte[] content = imageCache.fits(image.getSize()) ? decrypt(blobStore.get(image.getBlobKey())) : null;
+		return new CachedImage(metadata, image.getBlobKey(), content);
+	}
+
+	private byte[] decrypt(byte[] encrypted) {
+		pipelineMetrics.recordSize(Stage.DECRYPT, encrypted.length);
+		return pipelineMetrics.time(Stage.DECRYPT, () -> encryptionService.decrypt(encrypted));
+	}
+
+	private Optional<Image> findByName(String fileName) {
+		return pipelineMetrics.time(Stage.DB, () -> imageRepository.findByName(fileName));
+	}
+
+	private List<Image> findPageAfter(Long id) {
+		return pipelineMetrics.time(Stage.DB, () -> imageRepository.findByIdGreaterThanOrderByIdAsc(id, Limit.of(zipPageSize)));
+	}
+
+	private List<Image> findPageAfter(Specification<Image> matching, Long id) {
+		return pipelineMetrics.time(Stage.DB, () -> imageRepository.findBy(matching.and(ImageSpecifications.idGreaterThan(id)),
+				query -> query.sortBy(Sort.by("id")).limit(zipPageSize).all()));
+	}
+
+	private void download(Function<Long, List<Image>> pageAfter, OutputStream out) {
+		CountingOutputStream countingOut = new CountingOutputStream(out);
+		try {
+			zip(pageAfter, countingOut);
+		} finally {
+			pipelineMetrics.countOut(countingOut.getByteCount());
+		}
+	}
+
+	/**
+	 * @param pageAfter - returns the next page of the images after the given id, ordered by id
+	 */
+	private void zip(Function<Long, List<Image>> pageAfter, OutputStream out) {
+		Stream<Image> images = Stream.iterate(pageAfter.apply(0L),
+				page -> !page.isEmpty(),
+				page -> pageAfter.apply(page.get(page.size() - 1).getId()))
+				.flatMap(List::stream);
+		CountingOutputStream countingOut = new CountingOutputStream(out);
+		try {
+			pipelineMetrics.time(Stage.ZIP, () -> imageZipService.zipAll(images::iterator, countingOut));
+		} finally {
+			pipelineMetrics.recordSize(Stage.ZIP, countingOut.getByteCount());
+		}
+	}
+
+	/**
+	 * An uploaded image ready to be saved.
+	 *
+	 * @param image      - the image to save
+	 * @param newContent - whether its content was stored by this upload, or it is an already stored one
+	 */
+	private record ProcessedImage(Image image, boolean newContent) {
+	}
+
+	/**
+	 * The uploaded file is moved to a temp file (the multipart part is usually on disk already), hashed, probed,
+	 * scaled and encrypted from there, so the image content is never held in memory.
+	 */
+	private ProcessedImage toImage(MultipartFile imageFile) {
+		pipelineMetrics.countIn(imageFile.getSize());
+		pipelineMetrics.recordSize(Stage.READ, imageFile.getSize());
+		Path source = pipelineMetrics.time(Stage.READ, () -> transferToTempFile(imageFile));
+		Path scaled = null;
+		try {
+			String originalHash = hash(source);
+			Image.ImageBuilder image = Image.builder()
+					.name(generateFileName(imageFile))
+					.type(imageFile.getContentType())
+					.originalHash(originalHash)
+					.createdAt(Instant.now());
+			Optional<ImageContent> stored = pipelineMetrics.time(Stage.DB, () -> imageContentRepository.findByOriginalHash(originalHash));
+			if (stored.isPresent()) {
+				log.debug("duplicate image, sharing stored content: {}", imageFile.getOriginalFilename());
+				return new ProcessedImage(image
+						.size(stored.get().getSize())
+						.contentHash(stored.get().getContentHash())
+						.crc32(stored.get().getCrc32())
+						.blobKey(stored.get().getBlobKey())
+						.build(), false);
+			}
+			if (!isWithinMaxDimension(source, imageFile)) {
+				Path target = createTempFile();
+				scaled = target;
+				pipelineMetrics.recordSize(Stage.SCALE, imageFile.getSize());
+				pipelineMetrics.time(Stage.SCALE, () -> imageConverter.scale(source, target));
+			}
+			Path content = scaled != null ? scaled : source;
+			long size = size(content);
+			MessageDigest contentDigest = DigestUtils.getSha256Digest();
+			CRC32 contentCrc = new CRC32();
+			pipelineMetrics.recordSize(Stage.ENCRYPT, size);
+			String blobKey = pipelineMetrics.time(Stage.ENCRYPT, () -> store(content, contentDigest, contentCrc));
+			return new ProcessedImage(image
+					.size(size)
+					.contentHash(Hex.encodeHexString(contentDigest.digest()))
+					.crc32(contentCrc.getValue())
+					.blobKey(blobKey)
+					.build(), true);
+		} finally {
+			deleteTempFile(source);
+			deleteTempFile(scaled);
+		}
+	}
+
+	private boolean isWithinMaxDimension(Path image, MultipartFile imageFile) {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(image))) {
+			ImageHeader header = ImageHeader.read(in)
+					.orElseThrow(() -> new InvalidImageException("Malformed image: " + imageFile.getOriginalFilename()));
+			if (header.isWithin(maxDim, maxDim)) {
+				log.debug("skip scaling, image within bounds: {}", header);
+				return true;
+			}
+			return false;
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read image: " + image, e);
+		}
+	}
+
+	/**
+	 * The content is encrypted, hashed and checksummed while it is written to the blob store.
+	 */
+	private String store(Path content, MessageDigest digest, Checksum checksum) {
+		return blobStore.put(out -> {
+			// the blob store closes its own stream
+			try (OutputStream encrypted = new CheckedOutputStream(new DigestOutputStream(
+					encryptionService.encryptingStream(CloseShieldOutputStream.wrap(out)), digest), checksum)) {
+				Files.copy(content, encrypted);
+			}
+		});
 	}
 
 	private void validateFile(MultipartFile imageFile) {
@@ -87,30 +424,157 @@ public class ImageStoreService {
 			log.debug("Wrong file type: {} | allowed types: {}", type, ALLOWED_TYPES);
 			throw new InvalidImageException("Only png and jpg allowed: " + imageFile.getOriginalFilename());
 		}
-	}
-
-	private String generateFileName(MultipartFile imageFile) {
 		String fileName = imageFile.getOriginalFilename();
 		if (!fileName.contains(".")) {
 			throw new InvalidImageException("Missing extension: " + fileName);
 		}
+	}
+
+	private String generateFileName(MultipartFile imageFile) {
+		String fileName = imageFile.getOriginalFilename();
 		String extension = fileName.substring(fileName.lastIndexOf('.'));
 		return UUID.randomUUID() + extension;
 	}
 
-	private byte[] getImageContent(MultipartFile imageFile) {
+	private Path transferToTempFile(MultipartFile imageFile) {
+		Path file = createTempFile();
 		try {
-			return imageFile.getBytes();
+			imageFile.transferTo(file.toFile());
+			return file;
 		} catch (IOException e) {
+			deleteTempFile(file);
 			throw new InvalidImageException("Malformed image: " + imageFile.getOriginalFilename(), e);
 		}
 	}
 
-	@Transactional
-	private String saveImage(Image image) {
-		Image saved = imageRepository.save(image);
-		log.debug("file uploaded successfully: {}", saved.getName());
-		return saved.getName();
+	private static Path createTempFile() {
+		try {
+			return Files.createTempFile(TEMP_FILE_PREFIX, ".img");
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to create temp file", e);
+		}
+	}
+
+	private static void deleteTempFile(Path file) {
+		if (file == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warn("unable to delete temp file: {}", file, e);
+		}
+	}
+
+	private static String hash(Path file) {
+		try (InputStream in = Files.newInputStream(file)) {
+			return DigestUtils.sha256Hex(in);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read image: " + file, e);
+		}
+	}
+
+	private static long size(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read image: " + file, e);
+		}
+	}
+
+	/**
+	 * Contents stored by this upload, but not referenced in the end (duplicates within the request, or contents
+	 * stored meanwhile by a concurrent upload) are removed from the blob store.<br>
+	 * When saving fails, the transaction is rolled back, so none of the contents stored by this upload is referenced.
+	 */
+	private List<String> saveImages(List<ProcessedImage> processedImages) {
+		List<Image> images = processedImages.stream().map(ProcessedImage::image).toList();
+		Set<String> storedBlobKeys = newBlobKeys(processedImages);
+		List<String> names;
+		try {
+			names = saveImagesRetrying(images);
+		} catch (RuntimeException e) {
+			deleteBlobs(storedBlobKeys);
+			throw e;
+		}
+		images.forEach(image -> storedBlobKeys.remove(image.getBlobKey()));
+		deleteBlobs(storedBlobKeys);
+		return names;
+	}
+
+	private List<String> saveImagesRetrying(List<Image> images) {
+		try {
+			return transactionTemplate.execute(status -> saveImagesWithContents(images));
+		} catch (DataIntegrityViolationException e) {
+			log.debug("content saved by a concurrent upload, retrying", e);
+			return transactionTemplate.execute(status -> saveImagesWithContents(images));
+		}
+	}
+
+	/**
+	 * @return the keys of the contents stored by this upload
+	 */
+	private static Set<String> newBlobKeys(List<ProcessedImage> processedImages) {
+		return processedImages.stream()
+				.filter(ProcessedImage::newContent)
+				.map(processed -> processed.image().getBlobKey())
+				.collect(Collectors.toCollection(HashSet::new));
+	}
+
+	/**
+	 * A blob left behind is only wasted space, it must not fail the upload (or hide its failure).
+	 */
+	private void deleteBlobs(Set<String> blobKeys) {
+		for (String blobKey : blobKeys) {
+			try {
+				blobStore.delete(blobKey);
+			} catch (RuntimeException e) {
+				log.warn("unable to delete unreferenced blob: {}", blobKey, e);
+			}
+		}
+	}
+
+	private List<String> saveImagesWithContents(List<Image> images) {
+		Map<String, List<Image>> imagesByHash = images.stream()
+				.collect(Collectors.groupingBy(Image::getOriginalHash, LinkedHashMap::new, Collectors.toList()));
+		Map<String, ImageContent> storedContents = imageContentRepository.findByOriginalHashIn(imagesByHash.keySet()).stream()
+				.collect(Collectors.toMap(ImageContent::getOriginalHash, Function.identity()));
+		List<ImageContent> newContents = new ArrayList<>();
+		imagesByHash.forEach((hash, sameImages) -> {
+			ImageContent content = storedContents.get(hash);
+			if (content != null) {
+				imageContentRepository.addReferences(content.getId(), sameImages.size());
+			} else {
+				content = toContent(sameImages.get(0), sameImages.size());
+				newContents.add(content);
+			}
+			for (Image image : sameImages) {
+				// a failed attempt may have assigned it
+				image.setId(null);
+				image.setSize(content.getSize());
+				image.setContentHash(content.getContentHash());
+				image.setCrc32(content.getCrc32());
+				image.setBlobKey(content.getBlobKey());
+			}
+		});
+		imageContentRepository.saveAll(newContents);
+		List<Image> saved = imageRepository.saveAll(images);
+		saved.forEach(image -> log.debug("file uploaded successfully: {}", image.getName()));
+		List<String> names = saved.stream().map(Image::getName).toList();
+		thumbnailService.enqueue(names);
+		return names;
+	}
+
+	private ImageContent toContent(Image image, int references) {
+		return ImageContent.builder()
+				.originalHash(image.getOriginalHash())
+				.size(image.getSize())
+				.contentHash(image.getContentHash())
+				.crc32(image.getCrc32())
+				.blobKey(image.getBlobKey())
+				.refCount(references)
+				.createdAt(image.getCreatedAt())
+				.build();
 	}
 
 }
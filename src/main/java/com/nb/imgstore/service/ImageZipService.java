@@ -2,20 +2,59 @@ package com.nb.imgstore.service;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.nb.imgstore.extservice.blob.BlobStore;
 import com.nb.imgstore.model.Image;
+import com.nb.imgstore.service.PipelineMetrics.Stage;
 
 import lombok.RequiredArgsConstructor;
 
+/**
+ * Zips images.
+ * <p>
+ * Entries are compressed by the <code>app.zip.compression</code> policy. JPEG and PNG contents are compressed already,
+ * deflating them costs CPU for no gain, so by default (<code>AUTO</code>) they are stored as they are, by the CRC-32
+ * recorded at upload.<br>
+ * Archives over 4 GB or 65535 entries get ZIP64 records, written by {@link ZipOutputStream} as needed.
+ */
 @Service
 @RequiredArgsConstructor
 public class ImageZipService {
+	private static final Set<String> COMPRESSED_TYPES = Set.of("image/png", "image/jpeg");
 	private final EncryptionService encryptionService;
+	private final BlobStore blobStore;
+	private final PipelineMetrics pipelineMetrics;
+	private final ReadAheadExecutor readAheadExecutor;
+
+	/**
+	 * Compression policy of the zip entries.
+	 */
+	public enum Compression {
+		/**
+		 * Images of already compressed types are stored, others are deflated
+		 */
+		AUTO,
+		/**
+		 * All entries are stored without compression
+		 */
+		STORED,
+		/**
+		 * All entries are deflated
+		 */
+		DEFLATED
+	}
+
+	@Value("${app.zip.compression:AUTO}")
+	private Compression compression = Compression.AUTO;
 
 	/**
 	 * Zips the provided images, generates the zip file as a byte array
@@ -27,20 +66,76 @@ public class ImageZipService {
 		if (images.isEmpty()) {
 			return new byte[0];
 		}
-		try (ByteArrayOutputStream baos = new ByteArrayOutputStream(); ZipOutputStream zipos = new ZipOutputStream(baos)) {
-			for (Image image : images) {
-				byte[] data = encryptionService.decrypt(image.getData());
-				ZipEntry entry = new ZipEntry(image.getName());
-				entry.setSize(data.length);
-				zipos.putNextEntry(entry);
-				zipos.write(data);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		zipAll(images, baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Zips the provided images straight into the given output stream.
+	 * <p>
+	 * The next images are fetched and decrypted in parallel by the {@link ReadAheadExecutor}, while the current one is
+	 * written, so the memory held is bounded by its limits.<br>
+	 * The output stream is finished but not closed.
+	 * 
+	 * @param images - iterated lazily, can be backed by a paging query
+	 * @param out    - target of the zip file content
+	 */
+	public void zipAll(Iterable<Image> images, OutputStream out) {
+		try {
+			ZipOutputStream zipos = new ZipOutputStream(out);
+			readAheadExecutor.forEachOrdered(images, ImageZipService::size, this::decrypt, entry -> {
+				zipos.putNextEntry(toEntry(entry.image(), entry.data()));
+				zipos.write(entry.data());
 				zipos.closeEntry();
-			}
-			zipos.close();
-			return baos.toByteArray();
+			});
+			zipos.finish();
+			zipos.flush();
 		} catch (IOException e) {
 			throw new IllegalStateException("Compressing files failed", e);
 		}
 	}
 
+	private DecryptedImage decrypt(Image image) {
+		byte[] encrypted = blobStore.get(image.getBlobKey());
+		pipelineMetrics.recordSize(Stage.DECRYPT, encrypted.length);
+		return new DecryptedImage(image, pipelineMetrics.time(Stage.DECRYPT, () -> encryptionService.decrypt(encrypted)));
+	}
+
+	private static long size(Image image) {
+		return image.getSize() == null ? 0 : image.getSize();
+	}
+
+	/**
+	 * Stored entries need the size and the CRC-32 before their data, the CRC-32 is calculated only for images
+	 * uploaded before it was recorded.
+	 */
+	private ZipEntry toEntry(Image image, byte[] data) {
+		ZipEntry entry = new ZipEntry(image.getName());
+		entry.setSize(data.length);
+		if (isStored(image)) {
+			entry.setMethod(ZipEntry.STORED);
+			entry.setCompressedSize(data.length);
+			entry.setCrc(image.getCrc32() != null ? image.getCrc32() : crc32(data));
+		}
+		return entry;
+	}
+
+	private boolean isStored(Image image) {
+		return switch (compression) {
+			case AUTO -> image.getType() != null && COMPRESSED_TYPES.contains(image.getType());
+			case STORED -> true;
+			case DEFLATED -> false;
+		};
+	}
+
+	private static long crc32(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
+	private record DecryptedImage(Image image, byte[] data) {
+	}
+
 }
@@ -0,0 +1,114 @@
+package com.nb.imgstore.service;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+
+import com.nb.imgstore.util.StageTrace;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metrics of the image pipeline stages.
+ * <p>
+ * Per stage: the duration (<code>imgstore.stage</code> timer), the processed content size
+ * (<code>imgstore.stage.bytes</code> summary) and the number of running tasks (<code>imgstore.stage.active</code>
+ * gauge), all tagged by <code>stage</code>.<br>
+ * The bytes received and served are counted by <code>imgstore.bytes</code>, tagged by <code>direction</code>.
+ * <p>
+ * The durations are also added to the {@link StageTrace} of the current request.
+ */
+@Component
+class PipelineMetrics {
+
+	enum Stage {
+		VALIDATE, READ, SCALE, ENCRYPT, SAVE, DECRYPT, ZIP, DB;
+
+		private final String tag = name().toLowerCase(Locale.ROOT);
+
+		String tag() {
+			return tag;
+		}
+	}
+
+	private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+	private final Map<Stage, DistributionSummary> sizes = new EnumMap<>(Stage.class);
+	private final Map<Stage, AtomicInteger> active = new EnumMap<>(Stage.class);
+	private final Counter bytesIn;
+	private final Counter bytesOut;
+
+	PipelineMetrics(MeterRegistry meterRegistry) {
+		for (Stage stage : Stage.values()) {
+			timers.put(stage, Timer.builder("imgstore.stage")
+					.tag("stage", stage.tag())
+					.register(meterRegistry));
+			sizes.put(stage, DistributionSummary.builder("imgstore.stage.bytes")
+					.tag("stage", stage.tag())
+					.baseUnit("bytes")
+					.register(meterRegistry));
+			AtomicInteger running = new AtomicInteger();
+			active.put(stage, running);
+			Gauge.builder("imgstore.stage.active", running, AtomicInteger::get)
+					.tag("stage", stage.tag())
+					.register(meterRegistry);
+		}
+		this.bytesIn = Counter.builder("imgstore.bytes").tag("direction", "in").baseUnit("bytes").register(meterRegistry);
+		this.bytesOut = Counter.builder("imgstore.bytes").tag("direction", "out").baseUnit("bytes").register(meterRegistry);
+	}
+
+	/**
+	 * Runs a task of a stage, recording its duration, also when it fails.
+	 *
+	 * @param stage
+	 * @param task
+	 * @return the result of the task
+	 */
+	<T> T time(Stage stage, Supplier<T> task) {
+		AtomicInteger running = active.get(stage);
+		running.incrementAndGet();
+		long start = System.nanoTime();
+		try {
+			return task.get();
+		} finally {
+			long duration = System.nanoTime() - start;
+			running.decrementAndGet();
+			timers.get(stage).record(duration, TimeUnit.NANOSECONDS);
+			StageTrace.record(stage.tag(), duration);
+		}
+	}
+
+	void time(Stage stage, Runnable task) {
+		time(stage, () -> {
+			task.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Records the size of a content processed by a stage.
+	 *
+	 * @param stage
+	 * @param bytes
+	 */
+	void recordSize(Stage stage, long bytes) {
+		sizes.get(stage).record(bytes);
+	}
+
+	void countIn(long bytes) {
+		bytesIn.increment(bytes);
+	}
+
+	void countOut(long bytes) {
+		bytesOut.increment(bytes);
+	}
+
+}
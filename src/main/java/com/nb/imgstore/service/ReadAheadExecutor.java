@@ -0,0 +1,120 @@
+package com.nb.imgstore.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.apache.commons.io.function.IOConsumer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.nb.imgstore.util.StageTrace;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Prepares the next items of a sequence in parallel, ahead of their sequential consumer (e.g. decrypting the next
+ * images while the current one is written into a zip).
+ * <p>
+ * The tasks run on a shared thread pool (<code>app.zip.read-ahead.parallelism</code>). Per sequence, the number of
+ * prepared items waiting for the consumer is capped by <code>app.zip.read-ahead.max-items</code> and their total size by
+ * <code>app.zip.read-ahead.max-size</code>, but a single item is always let through, whatever its size.
+ * <p>
+ * The tasks run with the {@link StageTrace} of the caller.
+ */
+@Slf4j
+@Component
+class ReadAheadExecutor {
+	private final ExecutorService executor;
+	private final int maxItems;
+	private final long maxSize;
+
+	ReadAheadExecutor(@Value("${app.zip.read-ahead.parallelism:0}") int parallelism,
+			@Value("${app.zip.read-ahead.max-items:16}") int maxItems,
+			@Value("${app.zip.read-ahead.max-size:64MB}") DataSize maxSize) {
+		int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				new CustomizableThreadFactory("read-ahead-"));
+		this.maxItems = Math.max(1, maxItems);
+		this.maxSize = maxSize.toBytes();
+		log.info("read-ahead parallelism: {} | max items: {} | max size: {}", threads, this.maxItems, maxSize);
+	}
+
+	/**
+	 * Applies the task to the items in parallel, and passes the results to the consumer in the order of the items.
+	 *
+	 * @param items    - iterated lazily, only as far ahead as the limits allow
+	 * @param size     - size of the result of an item, counted against the max size until it is consumed
+	 * @param task
+	 * @param consumer - called on the calling thread
+	 * @throws IOException      the failure of the consumer
+	 * @throws RuntimeException the failure of the first failed task, the tasks not consumed yet are cancelled
+	 */
+	<T, R> void forEachOrdered(Iterable<T> items, ToLongFunction<T> size, Function<T, R> task, IOConsumer<R> consumer)
+			throws IOException {
+		StageTrace trace = StageTrace.current();
+		Deque<Pending<R>> pending = new ArrayDeque<>();
+		Iterator<T> iterator = items.iterator();
+		T next = iterator.hasNext() ? iterator.next() : null;
+		long pendingSize = 0;
+		try {
+			while (next != null || !pending.isEmpty()) {
+				while (next != null && (pending.isEmpty()
+						|| pending.size() < maxItems && pendingSize + size.applyAsLong(next) <= maxSize)) {
+					T item = next;
+					long itemSize = size.applyAsLong(item);
+					pending.add(new Pending<>(CompletableFuture.supplyAsync(() -> StageTrace.callWith(trace, () -> task.apply(item)),
+							executor), itemSize));
+					pendingSize += itemSize;
+					next = iterator.hasNext() ? iterator.next() : null;
+				}
+				Pending<R> head = pending.remove();
+				pendingSize -= head.size();
+				consumer.accept(getResult(head.result()));
+			}
+		} finally {
+			pending.forEach(p -> p.result().cancel(true));
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	private static <R> R getResult(CompletableFuture<R> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while reading ahead", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw new IllegalStateException("Reading ahead failed", e.getCause());
+		}
+	}
+
+	/**
+	 * A submitted task, not consumed yet.
+	 *
+	 * @param result
+	 * @param size   - size counted against the max size
+	 */
+	private record Pending<R>(CompletableFuture<R> result, long size) {
+	}
+
+}
@@ -0,0 +1,226 @@
+package com.nb.imgstore.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.nb.imgstore.exception.NotFoundException;
+import com.nb.imgstore.extservice.blob.BlobStore;
+import com.nb.imgstore.extservice.img.ImageConverter;
+import com.nb.imgstore.extservice.img.ImageHeader;
+import com.nb.imgstore.model.Image;
+import com.nb.imgstore.model.ImageVariant;
+import com.nb.imgstore.model.ThumbnailJob;
+import com.nb.imgstore.model.ThumbnailStatus;
+import com.nb.imgstore.repo.ImageRepository;
+import com.nb.imgstore.repo.ImageVariantRepository;
+import com.nb.imgstore.repo.ThumbnailJobRepository;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Generates the thumbnails of the uploaded images in the background.
+ * <p>
+ * Uploads enqueue a persistent job per image, the jobs are processed after the upload transaction commits, and by a
+ * periodic poll (<code>app.thumbnail.poll-interval</code>) which picks up the retries and the jobs left pending by a
+ * restart.<br>
+ * A thumbnail is generated for each of <code>app.thumbnail.sizes</code> (as max width and height), unless the image is
+ * already within that size. Failed jobs are retried with exponential backoff, up to
+ * <code>app.thumbnail.max-attempts</code>.
+ * <p>
+ * Jobs are processed one by one on a single thread, so thumbnail generation never competes with uploads for more than
+ * one conversion slot.
+ */
+@Slf4j
+@Service
+public class ThumbnailService {
+	private static final int BATCH_SIZE = 100;
+	private static final int MAX_ERROR_LENGTH = 1000;
+
+	private final ThumbnailJobRepository jobRepository;
+	private final ImageVariantRepository variantRepository;
+	private final ImageRepository imageRepository;
+	private final BlobStore blobStore;
+	private final EncryptionService encryptionService;
+	private final ImageConverter imageConverter;
+	private final List<Integer> sizes;
+	private final int maxAttempts;
+	private final Duration retryDelay;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("thumbnail-"));
+
+	ThumbnailService(ThumbnailJobRepository jobRepository, ImageVariantRepository variantRepository,
+			ImageRepository imageRepository, BlobStore blobStore, EncryptionService encryptionService,
+			ImageConverter imageConverter,
+			@Value("${app.thumbnail.sizes:128,512,1024}") List<Integer> sizes,
+			@Value("${app.thumbnail.max-attempts:5}") int maxAttempts,
+			@Value("${app.thumbnail.retry-delay:1m}") Duration retryDelay) {
+		this.jobRepository = jobRepository;
+		this.variantRepository = variantRepository;
+		this.imageRepository = imageRepository;
+		this.blobStore = blobStore;
+		this.encryptionService = encryptionService;
+		this.imageConverter = imageConverter;
+		this.sizes = sizes.stream().sorted().toList();
+		this.maxAttempts = maxAttempts;
+		this.retryDelay = retryDelay;
+		log.info("thumbnail sizes: {} | max attempts: {} | retry delay: {}", this.sizes, maxAttempts, retryDelay);
+	}
+
+	/**
+	 * Enqueues the thumbnail generation of the given images.
+	 * <p>
+	 * When called in a transaction, the jobs are saved in it and processing starts only after it commits.
+	 *
+	 * @param imageNames
+	 */
+	public void enqueue(Collection<String> imageNames) {
+		if (sizes.isEmpty() || imageNames.isEmpty()) {
+			return;
+		}
+		Instant now = Instant.now();
+		jobRepository.saveAll(imageNames.stream()
+				.map(name -> ThumbnailJob.builder()
+						.imageName(name)
+						.status(ThumbnailJob.Status.PENDING)
+						.nextAttemptAt(now)
+						.createdAt(now)
+						.build())
+				.toList());
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					trigger();
+				}
+			});
+		} else {
+			trigger();
+		}
+	}
+
+	/**
+	 * Returns a thumbnail content, if it is one of the generated sizes and it is ready.
+	 *
+	 * @param imageName
+	 * @param width     - max width
+	 * @param height    - max height
+	 * @return the thumbnail content, or empty if there is no such thumbnail
+	 */
+	public Optional<byte[]> findThumbnail(String imageName, int width, int height) {
+		if (width != height || !sizes.contains(width)) {
+			return Optional.empty();
+		}
+		return variantRepository.findByImageNameAndWidthAndHeight(imageName, width, height)
+				.map(ImageVariant::getBlobKey)
+				.map(blobStore::get)
+				.map(encryptionService::decrypt);
+	}
+
+	/**
+	 * Returns the readiness of the thumbnails of an image.
+	 *
+	 * @param imageName
+	 * @return the thumbnail status
+	 */
+	public ThumbnailStatus getStatus(String imageName) {
+		ThumbnailJob job = jobRepository.findByImageName(imageName)
+				.orElseThrow(() -> new NotFoundException("Thumbnails not found: " + imageName));
+		List<Integer> ready = variantRepository.findByImageNameOrderByWidthAsc(imageName).stream()
+				.map(ImageVariant::getWidth)
+				.toList();
+		return new ThumbnailStatus(imageName, job.getStatus(), ready);
+	}
+
+	@Scheduled(fixedDelayString = "${app.thumbnail.poll-interval:PT30S}", initialDelayString = "${app.thumbnail.poll-interval:PT30S}")
+	void poll() {
+		trigger();
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	private void trigger() {
+		executor.execute(this::processPendingJobs);
+	}
+
+	/**
+	 * Processes the due jobs until none is left. Failed jobs are rescheduled to the future, so they do not come back
+	 * in the same run.
+	 */
+	void processPendingJobs() {
+		List<ThumbnailJob> jobs;
+		do {
+			jobs = jobRepository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(ThumbnailJob.Status.PENDING,
+					Instant.now(), Limit.of(BATCH_SIZE));
+			jobs.forEach(this::process);
+		} while (!jobs.isEmpty());
+	}
+
+	private void process(ThumbnailJob job) {
+		String imageName = job.getImageName();
+		try {
+			byte[] original = imageRepository.findByName(imageName)
+					.map(Image::getBlobKey)
+					.map(blobStore::get)
+					.map(encryptionService::decrypt)
+					.orElseThrow(() -> new NotFoundException("Image not found: " + imageName));
+			ImageHeader header = ImageHeader.read(original)
+					.orElseThrow(() -> new IllegalStateException("Malformed image: " + imageName));
+			sizes.stream()
+					.filter(size -> !header.isWithin(size, size))
+					.forEach(size -> generate(imageName, original, size));
+			job.setStatus(ThumbnailJob.Status.DONE);
+			log.debug("thumbnails generated: {}", imageName);
+		} catch (RuntimeException e) {
+			job.setAttempts(job.getAttempts() + 1);
+			job.setLastError(truncate(e.getMessage()));
+			if (job.getAttempts() >= maxAttempts) {
+				log.error("thumbnail generation failed: {}", imageName, e);
+				job.setStatus(ThumbnailJob.Status.FAILED);
+			} else {
+				Duration backoff = retryDelay.multipliedBy(1L << (job.getAttempts() - 1));
+				log.warn("thumbnail generation failed, retrying in {}: {}", backoff, imageName, e);
+				job.setNextAttemptAt(Instant.now().plus(backoff));
+			}
+		}
+		jobRepository.save(job);
+	}
+
+	private static String truncate(String message) {
+		return message != null && message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+	}
+
+	/**
+	 * Thumbnails generated by a previous, failed attempt are kept.
+	 */
+	private void generate(String imageName, byte[] original, int size) {
+		if (variantRepository.findByImageNameAndWidthAndHeight(imageName, size, size).isPresent()) {
+			return;
+		}
+		byte[] thumbnail = imageConverter.scale(original, size, size);
+		variantRepository.save(ImageVariant.builder()
+				.imageName(imageName)
+				.width(size)
+				.height(size)
+				.size((long) thumbnail.length)
+				.createdAt(Instant.now())
+				.blobKey(blobStore.put(encryptionService.encrypt(thumbnail)))
+				.build());
+	}
+
+}
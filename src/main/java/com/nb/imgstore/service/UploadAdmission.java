@@ -0,0 +1,159 @@
+package com.nb.imgstore.service;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.nb.imgstore.exception.ServiceUnavailableException;
+import com.nb.imgstore.util.StageTrace;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Admission control of the upload requests, so that bursts are shed instead of overloading the node.
+ * <p>
+ * An upload is admitted when both a slot (<code>app.upload.admission.max-concurrent</code>) and its payload size from
+ * the in-flight bytes budget (<code>app.upload.admission.max-size</code>) are available. Requests without a known
+ * length count as the max request size, a request over the whole budget counts as the budget.<br>
+ * Others wait in a fair queue, up to <code>app.upload.admission.max-queue-length</code> requests for
+ * <code>app.upload.admission.queue-timeout</code>, then they are rejected with {@link ServiceUnavailableException}.
+ * <p>
+ * Metrics: <code>imgstore.upload.admission.active</code>, <code>.queued</code> and <code>.bytes</code> gauges, the
+ * <code>.wait</code> timer and the <code>.rejected</code> counter (tagged by <code>reason</code>).
+ */
+@Slf4j
+@Component
+public class UploadAdmission {
+	private static final int KB = 1024;
+
+	private final Semaphore slots;
+	private final Semaphore budget;
+	private final int budgetKb;
+	private final long maxRequestSize;
+	private final int maxQueueLength;
+	private final Duration queueTimeout;
+	private final long retryAfterSeconds;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final Timer waitTimer;
+	private final Counter queueFullCounter;
+	private final Counter timeoutCounter;
+
+	UploadAdmission(@Value("${app.upload.admission.max-concurrent:0}") int maxConcurrent,
+			@Value("${app.upload.admission.max-size:256MB}") DataSize maxSize,
+			@Value("${spring.servlet.multipart.max-request-size:50MB}") DataSize maxRequestSize,
+			@Value("${app.upload.admission.max-queue-length:20}") int maxQueueLength,
+			@Value("${app.upload.admission.queue-timeout:2s}") Duration queueTimeout,
+			@Value("${app.upload.admission.retry-after:5s}") Duration retryAfter,
+			MeterRegistry meterRegistry) {
+		int permits = maxConcurrent > 0 ? maxConcurrent : Runtime.getRuntime().availableProcessors();
+		this.slots = new Semaphore(permits, true);
+		this.budgetKb = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxSize.toKilobytes()));
+		this.budget = new Semaphore(budgetKb, true);
+		this.maxRequestSize = maxRequestSize.toBytes();
+		this.maxQueueLength = maxQueueLength;
+		this.queueTimeout = queueTimeout;
+		this.retryAfterSeconds = Math.max(1, retryAfter.toSeconds());
+		this.waitTimer = meterRegistry.timer("imgstore.upload.admission.wait");
+		this.queueFullCounter = meterRegistry.counter("imgstore.upload.admission.rejected", "reason", "queue-full");
+		this.timeoutCounter = meterRegistry.counter("imgstore.upload.admission.rejected", "reason", "timeout");
+		Gauge.builder("imgstore.upload.admission.active", slots, s -> permits - s.availablePermits()).register(meterRegistry);
+		Gauge.builder("imgstore.upload.admission.queued", queued, AtomicInteger::get).register(meterRegistry);
+		Gauge.builder("imgstore.upload.admission.bytes", budget, b -> (budgetKb - b.availablePermits()) * (double) KB)
+				.baseUnit("bytes")
+				.register(meterRegistry);
+		log.info("upload admission: {} concurrent | {} in flight | max queue length: {} | queue timeout: {}", permits,
+				maxSize, maxQueueLength, queueTimeout);
+	}
+
+	/**
+	 * Admits an upload, waiting in the queue if needed.
+	 *
+	 * @param contentLength - size of the request payload, negative if unknown
+	 * @return the permit of the upload, to be closed when it is done
+	 * @throws ServiceUnavailableException when the queue is full, or the wait timed out
+	 */
+	public Permit admit(long contentLength) {
+		long size = contentLength < 0 ? maxRequestSize : contentLength;
+		int kb = (int) Math.min(budgetKb, Math.max(1, (size + KB - 1) / KB));
+		long start = System.nanoTime();
+		try {
+			if (tryAcquire(kb, 0)) {
+				recordWait(start);
+				return new Permit(kb);
+			}
+			// taking the place first, so that a burst cannot get past the limit between the check and the increment
+			if (queued.incrementAndGet() > maxQueueLength) {
+				queued.decrementAndGet();
+				queueFullCounter.increment();
+				throw new ServiceUnavailableException("Upload queue is full", retryAfterSeconds);
+			}
+			boolean acquired;
+			try {
+				acquired = tryAcquire(kb, queueTimeout.toNanos());
+			} finally {
+				queued.decrementAndGet();
+			}
+			recordWait(start);
+			if (!acquired) {
+				timeoutCounter.increment();
+				throw new ServiceUnavailableException("Timed out waiting for upload admission", retryAfterSeconds);
+			}
+			return new Permit(kb);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for upload admission", e);
+		}
+	}
+
+	private boolean tryAcquire(int kb, long timeoutNanos) throws InterruptedException {
+		long deadline = System.nanoTime() + timeoutNanos;
+		if (!slots.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+			return false;
+		}
+		if (!budget.tryAcquire(kb, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+			slots.release();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The wait also goes to the <code>upload-queue</code> stage of the current request's trace.
+	 */
+	private void recordWait(long start) {
+		long wait = System.nanoTime() - start;
+		waitTimer.record(wait, TimeUnit.NANOSECONDS);
+		StageTrace.record("upload-queue", wait);
+	}
+
+	/**
+	 * An admitted upload, it holds a slot and its size from the budget until it is closed.
+	 */
+	public final class Permit implements AutoCloseable {
+		private final int kb;
+		private boolean closed;
+
+		private Permit(int kb) {
+			this.kb = kb;
+		}
+
+		@Override
+		public synchronized void close() {
+			if (!closed) {
+				closed = true;
+				budget.release(kb);
+				slots.release();
+			}
+		}
+	}
+
+}
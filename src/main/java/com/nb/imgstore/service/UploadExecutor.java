@@ -0,0 +1,123 @@
+package com.nb.imgstore.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.nb.imgstore.util.StageTrace;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs the processing of uploaded files in parallel.
+ * <p>
+ * Parallelism is capped globally by the size of a shared thread pool (<code>app.upload.parallelism.global</code>) and
+ * per request (<code>app.upload.parallelism.per-request</code>), so a single request with many files cannot occupy the
+ * whole pool.
+ * <p>
+ * The tasks run with the {@link StageTrace} of the calling request.
+ */
+@Slf4j
+@Component
+class UploadExecutor {
+	private final ExecutorService executor;
+	private final int perRequestParallelism;
+
+	UploadExecutor(@Value("${app.upload.parallelism.global:0}") int globalParallelism,
+			@Value("${app.upload.parallelism.per-request:4}") int perRequestParallelism) {
+		int threads = globalParallelism > 0 ? globalParallelism : Runtime.getRuntime().availableProcessors();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				new CustomizableThreadFactory("upload-"));
+		this.perRequestParallelism = perRequestParallelism;
+		log.info("upload parallelism: {} global | {} per request", threads, perRequestParallelism);
+	}
+
+	/**
+	 * Applies the task to every item in parallel, and waits for all of them to complete.
+	 *
+	 * @param items
+	 * @param task
+	 * @return the results in the order of the items
+	 * @throws RuntimeException the failure of the first failed item, after all the items completed
+	 */
+	<T, R> List<R> invokeAll(List<T> items, Function<T, R> task) {
+		return invokeAll(items, task, results -> {
+		});
+	}
+
+	/**
+	 * Applies the task to every item in parallel, and waits for all of them to complete.
+	 *
+	 * @param items
+	 * @param task
+	 * @param discard - releases the results of the succeeded items when another item failed (e.g. deletes what they
+	 *                stored), it is not called when all the items succeeded
+	 * @return the results in the order of the items
+	 * @throws RuntimeException the failure of the first failed item, after all the items completed
+	 */
+	<T, R> List<R> invokeAll(List<T> items, Function<T, R> task, Consumer<List<R>> discard) {
+		Semaphore permits = new Semaphore(perRequestParallelism);
+		StageTrace trace = StageTrace.current();
+		List<CompletableFuture<R>> futures = new ArrayList<>(items.size());
+		try {
+			for (T item : items) {
+				permits.acquire();
+				futures.add(CompletableFuture.supplyAsync(() -> StageTrace.callWith(trace, () -> task.apply(item)), executor)
+						.whenComplete((r, e) -> permits.release()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			futures.forEach(f -> f.cancel(true));
+			throw new IllegalStateException("Interrupted while processing uploads", e);
+		} finally {
+			// the request's resources (e.g. multipart files) must not be released while tasks still use them
+			CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+		}
+		List<R> results = new ArrayList<>(futures.size());
+		RuntimeException failure = null;
+		for (CompletableFuture<R> future : futures) {
+			try {
+				results.add(getResult(future));
+			} catch (RuntimeException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			discard.accept(results);
+			throw failure;
+		}
+		return results;
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	private static <R> R getResult(CompletableFuture<R> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+
+}
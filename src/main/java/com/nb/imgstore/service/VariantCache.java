@@ -0,0 +1,227 @@
+package com.nb.imgstore.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.file.PathUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Disk cache of derived images (e.g. resized variants), encrypted like the originals.
+ * <p>
+ * The cache is bounded by the total size of the stored files (<code>app.variant-cache.max-size</code>), the least
+ * recently used entries are evicted first. Entries found on disk at startup are kept, ordered by their modification time.
+ * <p>
+ * Concurrent requests for the same missing entry are deduplicated: only the first one generates the content, the
+ * others wait for its result.
+ */
+@Slf4j
+@Component
+class VariantCache {
+	private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+	private final Path root;
+	private final Path tempDir;
+	private final long maxSize;
+	private final EncryptionService encryptionService;
+	private final ConcurrentMap<String, CompletableFuture<byte[]>> inProgress = new ConcurrentHashMap<>();
+	// access ordered: the eldest entry is the least recently used
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long size;
+	private final Counter hitCounter;
+	private final Counter missCounter;
+	private final Counter evictionCounter;
+
+	VariantCache(@Value("${app.variant-cache.root}") Path root,
+			@Value("${app.variant-cache.max-size:1GB}") DataSize maxSize,
+			EncryptionService encryptionService,
+			MeterRegistry meterRegistry) {
+		this.root = root;
+		this.tempDir = root.resolve("tmp");
+		this.maxSize = maxSize.toBytes();
+		this.encryptionService = encryptionService;
+		this.hitCounter = meterRegistry.counter("imgstore.variant-cache.gets", "result", "hit");
+		this.missCounter = meterRegistry.counter("imgstore.variant-cache.gets", "result", "miss");
+		this.evictionCounter = meterRegistry.counter("imgstore.variant-cache.evictions");
+		Gauge.builder("imgstore.variant-cache.size", this, VariantCache::size)
+				.baseUnit("bytes")
+				.register(meterRegistry);
+		init();
+		log.info("variant cache root: {} | max size: {} | entries: {}", root, maxSize, entries.size());
+	}
+
+	/**
+	 * Returns the cached content, or generates and caches it when missing.
+	 *
+	 * @param key       - identifies the content
+	 * @param generator - generates the content when it is not cached
+	 * @return the content
+	 * @throws RuntimeException the failure of the generator
+	 */
+	byte[] get(String key, Supplier<byte[]> generator) {
+		String id = DigestUtils.sha256Hex(key);
+		Optional<byte[]> cached = read(id);
+		if (cached.isPresent()) {
+			hitCounter.increment();
+			return cached.get();
+		}
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		CompletableFuture<byte[]> running = inProgress.putIfAbsent(id, future);
+		if (running != null) {
+			log.debug("waiting for variant in progress: {}", key);
+			hitCounter.increment();
+			return join(running);
+		}
+		try {
+			// it may have been completed since the first lookup
+			byte[] content = read(id).orElseGet(() -> {
+				missCounter.increment();
+				byte[] generated = generator.get();
+				write(id, generated);
+				return generated;
+			});
+			future.complete(content);
+			return content;
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inProgress.remove(id, future);
+		}
+	}
+
+	synchronized long size() {
+		return size;
+	}
+
+	private Optional<byte[]> read(String id) {
+		synchronized (this) {
+			if (entries.get(id) == null) {
+				return Optional.empty();
+			}
+		}
+		try {
+			return Optional.of(encryptionService.decrypt(Files.readAllBytes(resolve(id))));
+		} catch (NoSuchFileException e) {
+			// evicted meanwhile
+			return Optional.empty();
+		} catch (IOException e) {
+			log.warn("unable to read variant: {}", id, e);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Failing to cache the content does not fail the request, the content is generated again next time.
+	 */
+	private void write(String id, byte[] content) {
+		Path tempFile = tempDir.resolve(UUID.randomUUID().toString());
+		try {
+			byte[] encrypted = encryptionService.encrypt(content);
+			Files.write(tempFile, encrypted);
+			Path file = resolve(id);
+			Files.createDirectories(file.getParent());
+			Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			add(id, encrypted.length);
+		} catch (IOException e) {
+			log.warn("unable to cache variant: {}", id, e);
+			deleteQuietly(tempFile);
+		}
+	}
+
+	private void add(String id, long length) {
+		List<String> evicted = new ArrayList<>();
+		synchronized (this) {
+			Long previous = entries.put(id, length);
+			size += length - (previous == null ? 0 : previous);
+			Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+			while (size > maxSize && eldest.hasNext()) {
+				Map.Entry<String, Long> entry = eldest.next();
+				size -= entry.getValue();
+				evicted.add(entry.getKey());
+				eldest.remove();
+			}
+		}
+		evicted.forEach(evictedId -> {
+			log.debug("evicting variant: {}", evictedId);
+			evictionCounter.increment();
+			deleteQuietly(resolve(evictedId));
+		});
+	}
+
+	private void init() {
+		try {
+			if (Files.exists(tempDir)) {
+				PathUtils.cleanDirectory(tempDir);
+			}
+			Files.createDirectories(tempDir);
+			try (Stream<Path> files = Files.find(root, 2, (path, attributes) -> attributes.isRegularFile()
+					&& ID_PATTERN.matcher(path.getFileName().toString()).matches())) {
+				files.map(this::readAttributes)
+						.sorted(Comparator.comparing(e -> e.getValue().lastModifiedTime()))
+						.forEach(e -> add(e.getKey().getFileName().toString(), e.getValue().size()));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to initialize variant cache directory: " + root, e);
+		}
+	}
+
+	private Map.Entry<Path, BasicFileAttributes> readAttributes(Path file) {
+		try {
+			return Map.entry(file, Files.readAttributes(file, BasicFileAttributes.class));
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read variant: " + file, e);
+		}
+	}
+
+	private Path resolve(String id) {
+		return root.resolve(id.substring(0, 2)).resolve(id);
+	}
+
+	private void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warn("unable to delete variant: {}", file, e);
+		}
+	}
+
+	private static byte[] join(CompletableFuture<byte[]> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+
+}
@@ -14,11 +14,11 @@ import org.apache.commons.io.FileUtils;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * Utility class for generating a simple 256 bit AES ECB secret key.
+ * Utility class for generating a simple 256 bit AES secret key.
  * <p>
  * It generates the key into the user.home/imgstore/secret.key file in a binary form.
  * <p>
- * Such a key on a classpath is used by the {@link EncryptionServiceAes}.
+ * Such a key on a classpath is used by the {@link EncryptionServiceAesGcm}.
  */
 @Slf4j
 public class EncryptionUtil {
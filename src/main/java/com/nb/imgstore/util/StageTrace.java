@@ -0,0 +1,113 @@
+package com.nb.imgstore.util;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Breakdown of the time spent by a single request in the pipeline stages, in the format of the
+ * <code>Server-Timing</code> header.
+ * <p>
+ * The trace of the request is bound to the thread serving it. Tasks handed over to other threads carry it by
+ * {@link #callWith(StageTrace, Supplier)}, recording without a bound trace (e.g. background jobs) does nothing.<br>
+ * The durations of a stage add up, also from parallel tasks, so a stage can take longer than the request itself.
+ * <p>
+ * Stages are kept in fixed size arrays, recording does not allocate.
+ */
+public final class StageTrace {
+	private static final ThreadLocal<StageTrace> CURRENT = new ThreadLocal<>();
+	private static final int MAX_STAGES = 16;
+
+	private final long start = System.nanoTime();
+	private final String[] stages = new String[MAX_STAGES];
+	private final long[] nanos = new long[MAX_STAGES];
+	private int size;
+
+	/**
+	 * @return the trace bound to the current thread, or null
+	 */
+	public static StageTrace current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Binds a trace to the current thread.
+	 *
+	 * @param trace - null to unbind
+	 * @return the previously bound trace, to be restored
+	 */
+	public static StageTrace bind(StageTrace trace) {
+		StageTrace previous = CURRENT.get();
+		if (trace == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(trace);
+		}
+		return previous;
+	}
+
+	/**
+	 * Runs a task with the given trace bound to the current thread.
+	 *
+	 * @param trace - can be null
+	 * @param task
+	 * @return the result of the task
+	 */
+	public static <T> T callWith(StageTrace trace, Supplier<T> task) {
+		StageTrace previous = bind(trace);
+		try {
+			return task.get();
+		} finally {
+			bind(previous);
+		}
+	}
+
+	/**
+	 * Adds a duration to a stage of the trace bound to the current thread, if any.
+	 *
+	 * @param stage - name of the stage, a token of the header
+	 * @param nanos - duration
+	 */
+	public static void record(String stage, long nanos) {
+		StageTrace trace = CURRENT.get();
+		if (trace != null) {
+			trace.add(stage, nanos);
+		}
+	}
+
+	/**
+	 * Adds a duration to a stage, stages over the max number of stages are dropped.
+	 *
+	 * @param stage - name of the stage, a token of the header
+	 * @param duration - nanoseconds
+	 */
+	public synchronized void add(String stage, long duration) {
+		for (int i = 0; i < size; i++) {
+			if (stages[i].equals(stage)) {
+				nanos[i] += duration;
+				return;
+			}
+		}
+		if (size < MAX_STAGES) {
+			stages[size] = stage;
+			nanos[size] = duration;
+			size++;
+		}
+	}
+
+	/**
+	 * @return the stages in the order of their first recording, followed by the total time since the trace started,
+	 *         e.g. <code>db;dur=1.2, decrypt;dur=3.4, total;dur=5.1</code>
+	 */
+	public synchronized String toHeaderValue() {
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			appendMetric(value, stages[i], nanos[i]).append(", ");
+		}
+		return appendMetric(value, "total", System.nanoTime() - start).toString();
+	}
+
+	private static StringBuilder appendMetric(StringBuilder value, String stage, long nanos) {
+		return value.append(stage).append(";dur=").append(String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0));
+	}
+
+}
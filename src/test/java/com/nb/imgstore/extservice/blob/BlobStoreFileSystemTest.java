@@ -0,0 +1,123 @@
+package com.nb.imgstore.extservice.blob;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.nb.imgstore.extservice.blob.BlobStoreFileSystem.FsyncPolicy;
+
+class BlobStoreFileSystemTest {
+	private static final byte[] CONTENT = { 1, 2, 3, 4 };
+
+	@TempDir
+	private Path root;
+
+	private BlobStoreFileSystem blobStore;
+
+	@BeforeEach
+	void setUp() {
+		blobStore = new BlobStoreFileSystem(root, FsyncPolicy.FILE_AND_DIRECTORY);
+	}
+
+	@Test
+	void shouldPutStoreContentUnderItsHash() {
+		// given
+		String hash = DigestUtils.sha256Hex(CONTENT);
+		// when
+		String key = blobStore.put(CONTENT);
+		// then
+		assertAll(
+				() -> assertEquals(hash, key),
+				() -> assertTrue(Files.exists(root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash))),
+				() -> assertArrayEquals(CONTENT, blobStore.get(key)),
+				() -> assertEquals(0, Files.list(root.resolve("tmp")).count())
+		);
+	}
+
+	@Test
+	void shouldPutStreamedContent() throws Exception {
+		// when
+		String key = blobStore.put(out -> {
+			out.write(CONTENT, 0, 2);
+			out.write(CONTENT, 2, 2);
+		});
+		// then
+		try (InputStream in = blobStore.open(key)) {
+			assertAll(
+					() -> assertEquals(DigestUtils.sha256Hex(CONTENT), key),
+					() -> assertArrayEquals(CONTENT, in.readAllBytes())
+			);
+		}
+	}
+
+	@Test
+	void shouldOpenChannelAtAnyPosition() throws Exception {
+		// given
+		String key = blobStore.put(CONTENT);
+		ByteBuffer buffer = ByteBuffer.allocate(2);
+		// when
+		try (SeekableByteChannel channel = blobStore.openChannel(key)) {
+			channel.position(2);
+			channel.read(buffer);
+			// then
+			assertAll(
+					() -> assertEquals(CONTENT.length, channel.size()),
+					() -> assertArrayEquals(new byte[] { 3, 4 }, buffer.array())
+			);
+		}
+	}
+
+	@Test
+	void shouldPutSameContentOnlyOnce() {
+		// when
+		String key1 = blobStore.put(CONTENT);
+		String key2 = blobStore.put(CONTENT);
+		// then
+		assertAll(
+				() -> assertEquals(key1, key2),
+				() -> assertArrayEquals(CONTENT, blobStore.get(key2))
+		);
+	}
+
+	@Test
+	void shouldPutDiscardTempFile_whenWriterFails() throws Exception {
+		// when
+		assertThrows(IllegalStateException.class, () -> blobStore.put(out -> {
+			out.write(CONTENT);
+			throw new IOException("broken upload");
+		}));
+		// then
+		assertEquals(0, Files.list(root.resolve("tmp")).count());
+	}
+
+	@Test
+	void shouldDeleteBlob() {
+		// given
+		String key = blobStore.put(CONTENT);
+		// when
+		blobStore.delete(key);
+		// then
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> blobStore.get(key));
+		assertEquals("Blob not found: " + key, ex.getMessage());
+	}
+
+	@Test
+	void shouldRejectInvalidKey() {
+		assertThrows(IllegalArgumentException.class, () -> blobStore.get("../../etc/passwd"));
+	}
+
+}
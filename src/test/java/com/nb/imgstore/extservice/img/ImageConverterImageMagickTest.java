@@ -0,0 +1,123 @@
+package com.nb.imgstore.extservice.img;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.nb.imgstore.exception.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs against a fake <code>magick</code> shell script instead of the real tool.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class ImageConverterImageMagickTest {
+	private static final byte[] IMAGE_DATA = { 1, 2, 3 };
+
+	@TempDir
+	private Path magickDir;
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void shouldScaleInSingleInvocation() throws Exception {
+		// given
+		Path argsFile = magickDir.resolve("args.txt");
+		createMagick("echo \"$@\" >> " + argsFile);
+		ImageConverterImageMagick imageConverter = newImageConverter(2, 10, Duration.ofSeconds(1));
+		// when
+		byte[] actual = imageConverter.scale(IMAGE_DATA, 400, 300);
+		// then
+		List<String> invocations = Files.readAllLines(argsFile, StandardCharsets.UTF_8);
+		assertAll(
+				() -> assertArrayEquals(IMAGE_DATA, actual),
+				() -> assertEquals(1, invocations.size()),
+				() -> assertTrue(invocations.get(0).matches(".+\\.img -scale 400x1\\^> -scale 1x300\\^> .+\\.img"), invocations.get(0)),
+				() -> assertEquals(1, meterRegistry.timer("imgstore.imagemagick.conversion").count()),
+				() -> assertEquals(1, meterRegistry.counter("imgstore.imagemagick.exits", "code", "0").count())
+		);
+	}
+
+	@Test
+	void shouldScaleFail_whenNonZeroExitCode() throws Exception {
+		// given
+		createMagick("exit 3");
+		ImageConverterImageMagick imageConverter = newImageConverter(2, 10, Duration.ofSeconds(1));
+		// when
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> imageConverter.scale(IMAGE_DATA, 400, 300));
+		// then
+		assertAll(
+				() -> assertEquals("Unable to scale image, imagemagick exit code: 3", ex.getMessage()),
+				() -> assertEquals(1, meterRegistry.counter("imgstore.imagemagick.exits", "code", "3").count())
+		);
+	}
+
+	@Test
+	void shouldScaleReject_whenQueueIsFull() throws Exception {
+		// given
+		createMagick("sleep 1");
+		ImageConverterImageMagick imageConverter = newImageConverter(1, 0, Duration.ofSeconds(5));
+		CompletableFuture<byte[]> running = CompletableFuture.supplyAsync(() -> imageConverter.scale(IMAGE_DATA, 400, 300));
+		awaitActiveConversion();
+		// when
+		ServiceUnavailableException ex = assertThrows(ServiceUnavailableException.class, () -> imageConverter.scale(IMAGE_DATA, 400, 300));
+		// then
+		assertAll(
+				() -> assertEquals("Image conversion queue is full", ex.getMessage()),
+				() -> assertArrayEquals(IMAGE_DATA, running.get(5, TimeUnit.SECONDS)),
+				() -> assertEquals(1, meterRegistry.counter("imgstore.imagemagick.rejected").count())
+		);
+	}
+
+	@Test
+	void shouldScaleReject_whenQueueTimesOut() throws Exception {
+		// given
+		createMagick("sleep 1");
+		ImageConverterImageMagick imageConverter = newImageConverter(1, 10, Duration.ofMillis(100));
+		CompletableFuture<byte[]> running = CompletableFuture.supplyAsync(() -> imageConverter.scale(IMAGE_DATA, 400, 300));
+		awaitActiveConversion();
+		// when
+		ServiceUnavailableException ex = assertThrows(ServiceUnavailableException.class, () -> imageConverter.scale(IMAGE_DATA, 400, 300));
+		// then
+		assertAll(
+				() -> assertEquals("Timed out waiting for image conversion", ex.getMessage()),
+				() -> assertArrayEquals(IMAGE_DATA, running.get(5, TimeUnit.SECONDS)),
+				() -> assertEquals(2, meterRegistry.timer("imgstore.imagemagick.queue.wait").count())
+		);
+	}
+
+	private ImageConverterImageMagick newImageConverter(int concurrency, int maxQueueLength, Duration queueTimeout) {
+		return new ImageConverterImageMagick(5000, magickDir.toString(), concurrency, maxQueueLength, queueTimeout, Duration.ofSeconds(10), meterRegistry);
+	}
+
+	private void createMagick(String script) throws Exception {
+		Path magick = magickDir.resolve("magick");
+		Files.writeString(magick, "#!/bin/sh\n" + script + "\n");
+		magick.toFile().setExecutable(true);
+	}
+
+	private void awaitActiveConversion() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (meterRegistry.get("imgstore.imagemagick.active").gauge().value() < 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+}
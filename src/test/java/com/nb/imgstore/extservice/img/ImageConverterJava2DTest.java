@@ -0,0 +1,117 @@
+package com.nb.imgstore.extservice.img;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ImageConverterJava2DTest {
+	private static final byte[] IMAGE1_DATA = loadImageFromClasspath("620x413.jpg");
+	private static final byte[] IMAGE2_DATA = loadImageFromClasspath("360x288.png");
+	private static final byte[] IMAGE3_DATA = loadImageFromClasspath("6010x4012.jpg");
+
+	@TempDir
+	private Path tempDir;
+
+	private final ImageConverterJava2D imageConverter = new ImageConverterJava2D(5000, 0.9f);
+
+	@Test
+	void shouldScaleReturnSource_whenWithinBounds() {
+		// when
+		byte[] actual = imageConverter.scale(IMAGE1_DATA);
+		// then
+		assertSame(IMAGE1_DATA, actual);
+	}
+
+	@Test
+	void shouldScaleDownToDefaultBounds() throws Exception {
+		// when
+		byte[] actual = imageConverter.scale(IMAGE3_DATA);
+		// then
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(actual));
+		assertAll(
+				() -> assertEquals("JPEG", formatName(actual)),
+				() -> assertEquals(5000, image.getWidth()),
+				() -> assertEquals(3338, image.getHeight())
+		);
+	}
+
+	@Test
+	void shouldScaleDownToGivenBounds_keepingRatioAndFormat() throws Exception {
+		// when
+		byte[] actual = imageConverter.scale(IMAGE2_DATA, 200, 100);
+		// then
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(actual));
+		assertAll(
+				() -> assertEquals("png", formatName(actual)),
+				() -> assertEquals(125, image.getWidth()),
+				() -> assertEquals(100, image.getHeight())
+		);
+	}
+
+	@Test
+	void shouldScaleFileInPlace() throws Exception {
+		// given
+		Path file = tempDir.resolve("img.png");
+		Files.write(file, IMAGE2_DATA);
+		// when
+		imageConverter.scale(file, file, 200, 100);
+		// then
+		BufferedImage image = ImageIO.read(file.toFile());
+		assertAll(
+				() -> assertEquals(125, image.getWidth()),
+				() -> assertEquals(100, image.getHeight())
+		);
+	}
+
+	@Test
+	void shouldScaleCopyFile_whenWithinBounds() throws Exception {
+		// given
+		Path source = tempDir.resolve("source.jpg");
+		Path target = tempDir.resolve("target.jpg");
+		Files.write(source, IMAGE1_DATA);
+		// when
+		imageConverter.scale(source, target);
+		// then
+		assertArrayEquals(IMAGE1_DATA, Files.readAllBytes(target));
+	}
+
+	@Test
+	void shouldScaleFail_whenNotAnImage() {
+		// when
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> imageConverter.scale(new byte[] { 1, 2 }));
+		// then
+		assertEquals("Unsupported image format", ex.getMessage());
+	}
+
+	private static String formatName(byte[] image) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+			ImageReader reader = ImageIO.getImageReaders(iis).next();
+			return reader.getFormatName();
+		}
+	}
+
+	private static byte[] loadImageFromClasspath(String name) {
+		try (InputStream in = ImageConverterJava2DTest.class.getResourceAsStream("/images/" + name)) {
+			return in.readAllBytes();
+		} catch (IOException e) {
+			throw new IllegalStateException("Loading image failed: " + name, e);
+		}
+	}
+
+}
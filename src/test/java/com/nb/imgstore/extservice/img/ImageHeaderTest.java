@@ -0,0 +1,71 @@
+package com.nb.imgstore.extservice.img;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class ImageHeaderTest {
+
+	@ParameterizedTest
+	@CsvSource({
+			"620x413.jpg, jpeg, 620, 413",
+			"360x288.png, png, 360, 288",
+			"6010x4012.jpg, jpeg, 6010, 4012"
+	})
+	void shouldReadHeader(String name, String format, int width, int height) {
+		// when
+		Optional<ImageHeader> actual = ImageHeader.read(loadImageFromClasspath(name));
+		// then
+		assertEquals(Optional.of(new ImageHeader(format, width, height)), actual);
+	}
+
+	@Test
+	void shouldReadFail_whenTruncated() {
+		// given
+		byte[] image = loadImageFromClasspath("360x288.png");
+		// when
+		Optional<ImageHeader> actual = ImageHeader.read(Arrays.copyOf(image, 20));
+		// then
+		assertFalse(actual.isPresent());
+	}
+
+	@Test
+	void shouldReadFail_whenNotAnImage() {
+		assertAll(
+				() -> assertFalse(ImageHeader.read(new byte[0]).isPresent()),
+				() -> assertFalse(ImageHeader.read(new byte[] { 1, 2, 3 }).isPresent()),
+				() -> assertFalse(ImageHeader.read(new byte[] { -1, -40, -1, -39 }).isPresent())
+		);
+	}
+
+	@Test
+	void shouldCheckBounds() {
+		// given
+		ImageHeader header = new ImageHeader(ImageHeader.PNG, 500, 300);
+		// then
+		assertAll(
+				() -> assertTrue(header.isWithin(500, 300)),
+				() -> assertFalse(header.isWithin(499, 300)),
+				() -> assertFalse(header.isWithin(500, 299))
+		);
+	}
+
+	private static byte[] loadImageFromClasspath(String name) {
+		try (InputStream in = ImageHeaderTest.class.getResourceAsStream("/images/" + name)) {
+			return in.readAllBytes();
+		} catch (IOException e) {
+			throw new IllegalStateException("Loading image failed: " + name, e);
+		}
+	}
+
+}
@@ -1,22 +1,39 @@
 package com.nb.imgstore.integration;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.matchesRegex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.TestPropertySource;
@@ -25,9 +42,13 @@ import org.springframework.test.web.servlet.MvcResult;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nb.imgstore.model.ExportJob;
+import com.nb.imgstore.model.ExportStatus;
+import com.nb.imgstore.service.UploadAdmission;
 
 @SpringBootTest
 @AutoConfigureMockMvc
+@AutoConfigureObservability(tracing = false)
 @TestPropertySource("classpath:application-test.properties")
 class ImageControllerITest {
 	private static final byte[] IMAGE1_DATA = loadImageFromClasspath("620x413.jpg");
@@ -40,6 +61,9 @@ class ImageControllerITest {
 	@Autowired
 	private ObjectMapper objectMapper;
 
+	@Autowired
+	private UploadAdmission uploadAdmission;
+
 	@Test
 	void uploadImages() throws Exception {
 		// given
@@ -80,6 +104,110 @@ class ImageControllerITest {
 		assertTrue(downloadedContent.length > 0);
 	}
 
+	@Test
+	void uploadAndDownloadDuplicateImages() throws Exception {
+		// upload the same file twice
+		MockMultipartFile file1 = new MockMultipartFile("images", "img2.png", MediaType.IMAGE_PNG_VALUE, IMAGE2_DATA);
+		MockMultipartFile file2 = new MockMultipartFile("images", "img2-copy.png", MediaType.IMAGE_PNG_VALUE, IMAGE2_DATA);
+		MvcResult result = mockMvc.perform(multipart("/api/files").file(file1).file(file2))
+				.andExpect(status().isCreated())
+				.andReturn();
+		List<String> names = readResponse(result, new TypeReference<List<String>>() {
+		});
+		MvcResult result2 = mockMvc.perform(multipart("/api/files").file(file1))
+				.andExpect(status().isCreated())
+				.andReturn();
+		String name3 = readResponse(result2, new TypeReference<List<String>>() {
+		}).get(0);
+
+		// download files
+		for (String fileName : List.of(names.get(0), names.get(1), name3)) {
+			mockMvc.perform(get("/api/file/{fileName}", fileName))
+					.andExpectAll(status().isOk(),
+							content().bytes(IMAGE2_DATA)
+					);
+		}
+	}
+
+	@Test
+	void uploadAndDownloadImageConditionally() throws Exception {
+		// upload file
+		MockMultipartFile file1 = new MockMultipartFile("images", "img2.png", MediaType.IMAGE_PNG_VALUE, IMAGE2_DATA);
+		MvcResult result = mockMvc.perform(multipart("/api/files").file(file1))
+				.andExpect(status().isCreated())
+				.andReturn();
+		String fileName = readResponse(result, new TypeReference<List<String>>() {
+		}).get(0);
+
+		// download file
+		String eTag = mockMvc.perform(get("/api/file/{fileName}", fileName))
+				.andExpectAll(status().isOk(),
+						content().contentType(MediaType.IMAGE_PNG_VALUE),
+						content().bytes(IMAGE2_DATA),
+						header().string(HttpHeaders.ETAG, "\"" + DigestUtils.sha256Hex(IMAGE2_DATA) + "\""),
+						header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable"))
+				).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		// download file again
+		mockMvc.perform(get("/api/file/{fileName}", fileName).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpectAll(status().isNotModified(),
+						header().string(HttpHeaders.ETAG, eTag),
+						header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")),
+						content().bytes(new byte[0])
+				);
+	}
+
+	@Test
+	void uploadAndDownloadImageRanges() throws Exception {
+		// upload file
+		MockMultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		MvcResult result = mockMvc.perform(multipart("/api/files").file(file1))
+				.andExpect(status().isCreated())
+				.andReturn();
+		String fileName = readResponse(result, new TypeReference<List<String>>() {
+		}).get(0);
+
+		// download single range
+		int end = IMAGE1_DATA.length - 1;
+		mockMvc.perform(get("/api/file/{fileName}", fileName).header(HttpHeaders.RANGE, "bytes=10000-" + end))
+				.andExpectAll(status().isPartialContent(),
+						content().contentType(MediaType.IMAGE_JPEG_VALUE),
+						header().string(HttpHeaders.CONTENT_RANGE, "bytes 10000-" + end + "/" + IMAGE1_DATA.length),
+						content().bytes(Arrays.copyOfRange(IMAGE1_DATA, 10000, IMAGE1_DATA.length))
+				);
+
+		// download multiple ranges
+		mockMvc.perform(get("/api/file/{fileName}", fileName).header(HttpHeaders.RANGE, "bytes=0-9,100-199"))
+				.andExpectAll(status().isPartialContent(),
+						content().contentTypeCompatibleWith("multipart/byteranges"),
+						content().string(containsString("Content-Range: bytes 100-199/" + IMAGE1_DATA.length))
+				);
+	}
+
+	@Test
+	void uploadAndGetThumbnailStatus() throws Exception {
+		// upload file
+		MockMultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		MvcResult result = mockMvc.perform(multipart("/api/files").file(file1))
+				.andExpect(status().isCreated())
+				.andReturn();
+		String fileName = readResponse(result, new TypeReference<List<String>>() {
+		}).get(0);
+
+		// get thumbnail status
+		mockMvc.perform(get("/api/file/{fileName}/thumbnails", fileName))
+				.andExpectAll(status().isOk(),
+						content().contentType(MediaType.APPLICATION_JSON),
+						jsonPath("$.name").value(fileName),
+						jsonPath("$.status").isNotEmpty(),
+						jsonPath("$.sizes").isArray()
+				);
+
+		// unknown image
+		mockMvc.perform(get("/api/file/{fileName}/thumbnails", "unknown.jpg"))
+				.andExpect(status().isNotFound());
+	}
+
 	@Test
 	void uploadAndDownloadAllImages() throws Exception {
 		// upload file
@@ -92,14 +220,113 @@ class ImageControllerITest {
 				);
 
 		// download zip
-		byte[] zipContent = mockMvc.perform(get("/api/files"))
+		MvcResult asyncResult = mockMvc.perform(get("/api/files"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		byte[] zipContent = mockMvc.perform(asyncDispatch(asyncResult))
 				.andExpectAll(status().isOk(),
-						content().contentType(MediaType.APPLICATION_OCTET_STREAM_VALUE)
+						content().contentType(MediaType.APPLICATION_OCTET_STREAM_VALUE),
+						header().string(HttpHeaders.TRAILER, "Server-Timing")
 				).andReturn().getResponse().getContentAsByteArray();
 
 		assertTrue(zipContent.length > 0);
 	}
 
+	@Test
+	void uploadAndDownloadSelectedImages() throws Exception {
+		// upload files
+		Instant start = Instant.now();
+		MockMultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		MockMultipartFile file2 = new MockMultipartFile("images", "img2.png", MediaType.IMAGE_PNG_VALUE, IMAGE2_DATA);
+		MvcResult result = mockMvc.perform(multipart("/api/files").file(file1).file(file2))
+				.andExpect(status().isCreated())
+				.andReturn();
+		List<String> names = readResponse(result, new TypeReference<List<String>>() {
+		});
+
+		// by names
+		assertEquals(List.of(names.get(0)), downloadZipEntryNames("{\"names\": [\"" + names.get(0) + "\", \"unknown.jpg\"]}"));
+
+		// by upload time and type
+		assertEquals(List.of(names.get(1)), downloadZipEntryNames("{\"from\": \"" + start + "\", \"type\": \"image/png\"}"));
+
+		// by prefix
+		assertEquals(List.of(names.get(0)), downloadZipEntryNames("{\"prefix\": \"" + names.get(0).substring(0, 30) + "\"}"));
+
+		// no criteria
+		mockMvc.perform(post("/api/files/zip").contentType(MediaType.APPLICATION_JSON).content("{}"))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void uploadAndExportAllImages() throws Exception {
+		// upload file
+		MockMultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		mockMvc.perform(multipart("/api/files").file(file1))
+				.andExpect(status().isCreated());
+
+		// start export
+		MvcResult result = mockMvc.perform(post("/api/exports"))
+				.andExpectAll(status().isAccepted(),
+						header().string(HttpHeaders.LOCATION, matchesRegex("/api/exports/[0-9]+")),
+						jsonPath("$.id").isNumber()
+				).andReturn();
+		long id = readResponse(result, new TypeReference<ExportStatus>() {
+		}).id();
+
+		// same images, same export
+		mockMvc.perform(post("/api/exports"))
+				.andExpectAll(status().isAccepted(),
+						jsonPath("$.id").value(id)
+				);
+
+		// wait until done
+		ExportJob.Status status = null;
+		for (int i = 0; i < 100 && status != ExportJob.Status.DONE; i++) {
+			Thread.sleep(100);
+			status = readResponse(mockMvc.perform(get("/api/exports/{id}", id))
+					.andExpect(status().isOk())
+					.andReturn(), new TypeReference<ExportStatus>() {
+					}).status();
+		}
+		assertEquals(ExportJob.Status.DONE, status);
+
+		// download export
+		byte[] zipContent = mockMvc.perform(get("/api/exports/{id}/file", id))
+				.andExpectAll(status().isOk(),
+						content().contentType("application/zip")
+				).andReturn().getResponse().getContentAsByteArray();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(zipContent))) {
+			assertNotNull(zip.getNextEntry());
+		}
+
+		// unknown export
+		mockMvc.perform(get("/api/exports/{id}", id + 1000))
+				.andExpect(status().isNotFound());
+	}
+
+	@Test
+	void uploadAndListImageMetadata() throws Exception {
+		// upload file
+		MockMultipartFile file1 = new MockMultipartFile("images", "img2.png", MediaType.IMAGE_PNG_VALUE, IMAGE2_DATA);
+		MvcResult result = mockMvc.perform(multipart("/api/files").file(file1))
+				.andExpect(status().isCreated())
+				.andReturn();
+		String fileName = readResponse(result, new TypeReference<List<String>>() {
+		}).get(0);
+
+		// list metadata
+		mockMvc.perform(get("/api/files/meta").param("size", "500"))
+				.andExpectAll(status().isOk(),
+						content().contentType(MediaType.APPLICATION_JSON),
+						jsonPath("$.content[?(@.name == '" + fileName + "')].type").value(MediaType.IMAGE_PNG_VALUE),
+						jsonPath("$.content[?(@.name == '" + fileName + "')].size").value(IMAGE2_DATA.length),
+						jsonPath("$.content[?(@.name == '" + fileName + "')].createdAt").isNotEmpty(),
+						jsonPath("$.content[0].blobKey").doesNotExist(),
+						jsonPath("$.page.number").value(0)
+				);
+	}
+
 	@Test
 	void uploadLargeImage() throws Exception {
 		// upload file
@@ -112,6 +339,122 @@ class ImageControllerITest {
 				);
 	}
 
+	@Test
+	void uploadRejected_whenNotAdmitted() throws Exception {
+		// given: all upload slots taken
+		List<UploadAdmission.Permit> permits = new ArrayList<>();
+		try {
+			for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+				permits.add(uploadAdmission.admit(0));
+			}
+			MockMultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+			// when
+			mockMvc.perform(multipart("/api/files").file(file1))
+					.andExpectAll(status().isServiceUnavailable(),
+							header().string(HttpHeaders.RETRY_AFTER, "5"),
+							content().contentType(MediaType.APPLICATION_JSON),
+							jsonPath("$.status").value(503),
+							jsonPath("$.path").value("/api/files"),
+							jsonPath("$.message").value("Timed out waiting for upload admission")
+					);
+		} finally {
+			permits.forEach(UploadAdmission.Permit::close);
+		}
+	}
+
+	@Test
+	void uploadAndDownloadImageWithServerTiming() throws Exception {
+		// upload file
+		MockMultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		MvcResult result = mockMvc.perform(multipart("/api/files").file(file1))
+				.andExpectAll(status().isCreated(),
+						header().string("Server-Timing", matchesRegex("upload-queue;dur=.*validate;dur=.*read;dur=.*db;dur=.*save;dur=.*, total;dur=[0-9.]+"))
+				).andReturn();
+		String name = readResponse(result, new TypeReference<List<String>>() {
+		}).get(0);
+
+		// download file
+		mockMvc.perform(get("/api/file/{fileName}", name))
+				.andExpectAll(status().isOk(),
+						header().string("Server-Timing", matchesRegex("db;dur=[0-9.]+, decrypt;dur=[0-9.]+, total;dur=[0-9.]+"))
+				);
+	}
+
+	@Test
+	void uploadImageAndScrapeMetrics() throws Exception {
+		// upload file
+		MockMultipartFile file1 = new MockMultipartFile("images", "img2.png", MediaType.IMAGE_PNG_VALUE, IMAGE2_DATA);
+		mockMvc.perform(multipart("/api/files").file(file1))
+				.andExpect(status().isCreated());
+
+		// scrape metrics
+		mockMvc.perform(get("/actuator/prometheus"))
+				.andExpectAll(status().isOk(),
+						content().string(containsString("imgstore_stage_seconds_count{stage=\"encrypt\"}")),
+						content().string(containsString("imgstore_stage_seconds_bucket{stage=\"save\"")),
+						content().string(containsString("imgstore_bytes_total{direction=\"in\"}")),
+						content().string(containsString("imgstore_upload_admission_wait_seconds_count")),
+						content().string(containsString("imgstore_upload_admission_rejected_total{reason=\"queue-full\"}"))
+				);
+	}
+
+	/**
+	 * Variants are scaled by the Java2D converter, so no external tool is needed.
+	 */
+	@Nested
+	@TestPropertySource(properties = "app.image-converter.engine=java2d")
+	class Java2dVariants {
+		// the enclosing instance is injected from the context of the enclosing class
+		@Autowired
+		private MockMvc mockMvc;
+
+		@Test
+		void uploadAndDownloadImageVariant() throws Exception {
+			// upload file
+			MockMultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+			MvcResult result = mockMvc.perform(multipart("/api/files").file(file1))
+					.andExpect(status().isCreated())
+					.andReturn();
+			String fileName = readResponse(result, new TypeReference<List<String>>() {
+			}).get(0);
+
+			// download variant
+			byte[] variant = mockMvc.perform(get("/api/file/{fileName}", fileName).param("w", "200"))
+					.andExpectAll(status().isOk(),
+							content().contentType(MediaType.IMAGE_JPEG_VALUE),
+							header().string(HttpHeaders.ETAG, "\"" + DigestUtils.sha256Hex(IMAGE1_DATA) + "-200x\"")
+					).andReturn().getResponse().getContentAsByteArray();
+
+			// download cached variant
+			mockMvc.perform(get("/api/file/{fileName}", fileName).param("w", "200"))
+					.andExpectAll(status().isOk(),
+							content().bytes(variant)
+					);
+
+			// invalid boundary
+			mockMvc.perform(get("/api/file/{fileName}", fileName).param("w", "0"))
+					.andExpect(status().isBadRequest());
+		}
+
+	}
+
+	private List<String> downloadZipEntryNames(String filter) throws Exception {
+		MvcResult asyncResult = mockMvc.perform(post("/api/files/zip").contentType(MediaType.APPLICATION_JSON).content(filter))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		byte[] zipContent = mockMvc.perform(asyncDispatch(asyncResult))
+				.andExpectAll(status().isOk(),
+						content().contentType(MediaType.APPLICATION_OCTET_STREAM_VALUE)
+				).andReturn().getResponse().getContentAsByteArray();
+		List<String> entryNames = new ArrayList<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(zipContent))) {
+			for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+				entryNames.add(entry.getName());
+			}
+		}
+		return entryNames;
+	}
+
 	private static byte[] loadImageFromClasspath(String name) {
 		try {
 			String root = ImageControllerITest.class.getClassLoader().getResource(".").getPath();
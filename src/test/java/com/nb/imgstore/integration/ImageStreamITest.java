@@ -0,0 +1,162 @@
+package com.nb.imgstore.integration;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+/**
+ * Non-blocking downloads over a real connector, with a thread pool smaller than the number of slow clients.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"server.tomcat.threads.max=2",
+		"server.tomcat.threads.min-spare=1",
+		"app.image-converter.engine=java2d"
+})
+@TestPropertySource("classpath:application-test.properties")
+class ImageStreamITest {
+	private static final byte[] IMAGE1_DATA = loadImageFromClasspath("620x413.jpg");
+	private static final byte[] IMAGE3_DATA = loadImageFromClasspath("6010x4012.jpg");
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Test
+	void uploadAndStreamImage() {
+		// upload file
+		String fileName = upload("img1.jpg", IMAGE1_DATA);
+
+		// stream file
+		ResponseEntity<byte[]> response = restTemplate.getForEntity("/api/stream/file/{fileName}", byte[].class, fileName);
+		assertAll(
+				() -> assertEquals(HttpStatus.OK, response.getStatusCode()),
+				() -> assertEquals(MediaType.IMAGE_JPEG, response.getHeaders().getContentType()),
+				() -> assertNotNull(response.getHeaders().getFirst("Server-Timing")),
+				() -> assertArrayEquals(IMAGE1_DATA, response.getBody())
+		);
+
+		// not modified
+		HttpHeaders headers = new HttpHeaders();
+		headers.setIfNoneMatch(response.getHeaders().getETag());
+		ResponseEntity<byte[]> notModified = restTemplate.exchange("/api/stream/file/{fileName}", HttpMethod.GET,
+				new HttpEntity<>(headers), byte[].class, fileName);
+		assertAll(
+				() -> assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode()),
+				() -> assertEquals(response.getHeaders().getETag(), notModified.getHeaders().getETag()),
+				() -> assertEquals(response.getHeaders().getCacheControl(), notModified.getHeaders().getCacheControl())
+		);
+
+		// not modified by a list of weak validators
+		headers.set(HttpHeaders.IF_NONE_MATCH, "\"other\", W/" + response.getHeaders().getETag());
+		ResponseEntity<byte[]> notModifiedByList = restTemplate.exchange("/api/stream/file/{fileName}", HttpMethod.GET,
+				new HttpEntity<>(headers), byte[].class, fileName);
+		assertEquals(HttpStatus.NOT_MODIFIED, notModifiedByList.getStatusCode());
+
+		// unknown image
+		ResponseEntity<Map<String, Object>> notFound = restTemplate.exchange("/api/stream/file/{fileName}", HttpMethod.GET,
+				null, new ParameterizedTypeReference<Map<String, Object>>() {
+				}, "unknown.jpg");
+		assertAll(
+				() -> assertEquals(HttpStatus.NOT_FOUND, notFound.getStatusCode()),
+				() -> assertEquals(MediaType.APPLICATION_JSON, notFound.getHeaders().getContentType()),
+				() -> assertEquals(404, notFound.getBody().get("status")),
+				() -> assertEquals("/api/stream/file/unknown.jpg", notFound.getBody().get("path")),
+				() -> assertEquals("Image not found: unknown.jpg", notFound.getBody().get("message")),
+				() -> assertNull(notFound.getHeaders().getCacheControl())
+		);
+	}
+
+	@Test
+	@Timeout(value = 60, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+	void streamToSlowClientsWithoutHoldingThreads() throws IOException {
+		// upload files
+		String largeFileName = upload("img3.jpg", IMAGE3_DATA);
+		String fileName = upload("img1.jpg", IMAGE1_DATA);
+
+		// slow clients: more than the threads, they do not read the responses
+		List<Socket> slowClients = new ArrayList<>();
+		try {
+			for (int i = 0; i < 6; i++) {
+				Socket socket = new Socket();
+				socket.setReceiveBufferSize(1024);
+				socket.connect(new InetSocketAddress("localhost", port));
+				OutputStream out = socket.getOutputStream();
+				out.write(("GET /api/stream/file/" + largeFileName + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+						.getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+				slowClients.add(socket);
+			}
+
+			// other requests are still served
+			ResponseEntity<byte[]> response = restTemplate.getForEntity("/api/stream/file/{fileName}", byte[].class, fileName);
+			assertAll(
+					() -> assertEquals(HttpStatus.OK, response.getStatusCode()),
+					() -> assertArrayEquals(IMAGE1_DATA, response.getBody())
+			);
+		} finally {
+			for (Socket socket : slowClients) {
+				socket.close();
+			}
+		}
+	}
+
+	private String upload(String name, byte[] content) {
+		MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+		HttpHeaders partHeaders = new HttpHeaders();
+		partHeaders.setContentType(name.endsWith(".png") ? MediaType.IMAGE_PNG : MediaType.IMAGE_JPEG);
+		body.add("images", new HttpEntity<>(new ByteArrayResource(content) {
+			@Override
+			public String getFilename() {
+				return name;
+			}
+		}, partHeaders));
+		ResponseEntity<List<String>> response = restTemplate.exchange("/api/files", HttpMethod.POST, new HttpEntity<>(body),
+				new ParameterizedTypeReference<List<String>>() {
+				});
+		assertTrue(response.getStatusCode().is2xxSuccessful(), "upload: " + response.getStatusCode());
+		return response.getBody().get(0);
+	}
+
+	private static byte[] loadImageFromClasspath(String name) {
+		try {
+			String root = ImageStreamITest.class.getClassLoader().getResource(".").getPath();
+			return FileUtils.readFileToByteArray(FileUtils.getFile(root, "images", name));
+		} catch (IOException e) {
+			throw new IllegalStateException("Loading image failed: " + name, e);
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.nb.imgstore.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.hibernate.dialect.H2Dialect;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+class ImageIdSequenceInitializerTest {
+	private final JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:sequence;DB_CLOSE_DELAY=-1", "sa", ""));
+	private final ImageIdSequenceInitializer initializer = new ImageIdSequenceInitializer(jdbcTemplate, new H2Dialect());
+
+	@BeforeEach
+	void setUp() {
+		jdbcTemplate.execute("drop all objects");
+		jdbcTemplate.execute("create table images (id bigint primary key)");
+		jdbcTemplate.execute("create sequence images_seq start with 1 increment by 50");
+	}
+
+	@Test
+	void shouldInitializeRestartSequence_whenBehindExistingIds() {
+		// given
+		jdbcTemplate.execute("insert into images (id) values (1), (2), (120)");
+		// when
+		initializer.initialize();
+		// then
+		assertEquals(170, nextValue());
+	}
+
+	@Test
+	void shouldInitializeKeepSequence_whenAheadOfExistingIds() {
+		// given
+		jdbcTemplate.execute("alter sequence images_seq restart with 501");
+		jdbcTemplate.execute("insert into images (id) values (1), (451)");
+		// when
+		initializer.initialize();
+		// then
+		// the initializer took one block
+		assertEquals(551, nextValue());
+	}
+
+	@Test
+	void shouldInitializeKeepSequence_whenNoImages() {
+		// when
+		initializer.initialize();
+		// then
+		assertEquals(1, nextValue());
+	}
+
+	private long nextValue() {
+		return jdbcTemplate.queryForObject("select next value for images_seq", Long.class);
+	}
+
+}
@@ -0,0 +1,176 @@
+package com.nb.imgstore.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.Resource;
+
+@ExtendWith(MockitoExtension.class)
+class EncryptionServiceAesGcmTest {
+	private static final byte[] AES_KEY = new byte[] { 17, 82, -87, 61, 77, 95, -54, -115, 26, -54, -41, -107, -28,
+			-123, -84, -24, -100, -10, 114, -124, -104, 19, -76, -121, 11, -27, -124, -76, 6, -68, -102, -74 };
+	private static final int CHUNK = EncryptionServiceAesGcm.CHUNK_SIZE;
+
+	private EncryptionServiceAesGcm encryptionService;
+
+	@Mock
+	private Resource res;
+
+	@TempDir
+	private Path tempDir;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		when(res.exists()).thenReturn(true);
+		when(res.getContentAsByteArray()).thenReturn(AES_KEY);
+		encryptionService = new EncryptionServiceAesGcm(res);
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 3 * CHUNK + 17 })
+	void shouldDecryptEncryptedData(int size) {
+		// given
+		byte[] data = randomBytes(size);
+		// when
+		byte[] encrypted = encryptionService.encrypt(data);
+		byte[] actual = encryptionService.decrypt(encrypted);
+		// then
+		assertAll(
+				() -> assertArrayEquals(data, actual),
+				() -> assertEquals(EncryptionServiceAesGcm.encryptedSize(size), encrypted.length)
+		);
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 0, 1, CHUNK, CHUNK + 1, 3 * CHUNK + 17 })
+	void shouldStreamingFormatMatchArrayFormat(int size) throws Exception {
+		// given
+		byte[] data = randomBytes(size);
+		// when
+		ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+		try (OutputStream out = encryptionService.encryptingStream(encrypted)) {
+			// odd write sizes to cross chunk boundaries
+			for (int i = 0; i < size; i += 1000) {
+				out.write(data, i, Math.min(1000, size - i));
+			}
+		}
+		byte[] decryptedByArray = encryptionService.decrypt(encrypted.toByteArray());
+		byte[] decryptedByStream;
+		try (InputStream in = encryptionService.decryptingStream(new ByteArrayInputStream(encryptionService.encrypt(data)))) {
+			decryptedByStream = in.readAllBytes();
+		}
+		// then
+		assertAll(
+				() -> assertArrayEquals(data, decryptedByArray),
+				() -> assertArrayEquals(data, decryptedByStream),
+				() -> assertEquals(EncryptionServiceAesGcm.encryptedSize(size), encrypted.size())
+		);
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 0, 10, CHUNK - 5, CHUNK, 2 * CHUNK + 3, 3 * CHUNK + 7 })
+	void shouldSeekableStreamSkipToPosition(int position) throws Exception {
+		// given
+		byte[] data = randomBytes(3 * CHUNK + 17);
+		Path file = Files.write(tempDir.resolve("encrypted"), encryptionService.encrypt(data));
+		// when
+		long skipped;
+		byte[] actual;
+		try (InputStream in = encryptionService.seekableDecryptingStream(Files.newByteChannel(file))) {
+			skipped = in.skip(position);
+			actual = in.readNBytes(20);
+		}
+		// then
+		assertAll(
+				() -> assertEquals(position, skipped),
+				() -> assertArrayEquals(Arrays.copyOfRange(data, position, Math.min(position + 20, data.length)), actual)
+		);
+	}
+
+	@Test
+	void shouldSeekableStreamDecryptAll_whenSkippingBeyondEnd() throws Exception {
+		// given
+		byte[] data = randomBytes(CHUNK + 10);
+		Path file = Files.write(tempDir.resolve("encrypted"), encryptionService.encrypt(data));
+		// when
+		byte[] all;
+		long skipped;
+		try (InputStream in = encryptionService.seekableDecryptingStream(Files.newByteChannel(file))) {
+			all = in.readAllBytes();
+		}
+		try (InputStream in = encryptionService.seekableDecryptingStream(Files.newByteChannel(file))) {
+			skipped = in.skip(2L * CHUNK);
+		}
+		// then
+		assertAll(
+				() -> assertArrayEquals(data, all),
+				() -> assertEquals(data.length, skipped)
+		);
+	}
+
+	@Test
+	void shouldEncryptWithRandomNonce() {
+		// given
+		byte[] data = randomBytes(100);
+		// when
+		byte[] encrypted1 = encryptionService.encrypt(data);
+		byte[] encrypted2 = encryptionService.encrypt(data);
+		// then
+		assertFalse(Arrays.equals(encrypted1, encrypted2));
+	}
+
+	@Test
+	void shouldDecryptFail_whenContentTampered() throws Exception {
+		// given
+		byte[] encrypted = encryptionService.encrypt(randomBytes(CHUNK + 10));
+		encrypted[EncryptionServiceAesGcm.HEADER_SIZE + 5] ^= 1;
+		Path file = Files.write(tempDir.resolve("encrypted"), encrypted);
+		// when
+		assertAll(
+				() -> assertThrows(IllegalStateException.class, () -> encryptionService.decrypt(encrypted)),
+				() -> assertThrows(IOException.class, () -> encryptionService.decryptingStream(new ByteArrayInputStream(encrypted)).readAllBytes()),
+				() -> assertThrows(IOException.class, () -> encryptionService.seekableDecryptingStream(Files.newByteChannel(file)).readAllBytes())
+		);
+	}
+
+	@Test
+	void shouldDecryptFail_whenTruncatedAtChunkBoundary() {
+		// given
+		byte[] encrypted = encryptionService.encrypt(randomBytes(2 * CHUNK));
+		byte[] truncated = Arrays.copyOf(encrypted, EncryptionServiceAesGcm.HEADER_SIZE + EncryptionServiceAesGcm.ENCRYPTED_CHUNK_SIZE);
+		// when
+		assertAll(
+				() -> assertThrows(IllegalStateException.class, () -> encryptionService.decrypt(truncated)),
+				() -> assertThrows(IOException.class, () -> encryptionService.decryptingStream(new ByteArrayInputStream(truncated)).readAllBytes())
+		);
+	}
+
+	private static byte[] randomBytes(int size) {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+
+}
@@ -1,14 +1,24 @@
 package com.nb.imgstore.service;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
 
 @ExtendWith(MockitoExtension.class)
 class EncryptionServiceAesTest {
@@ -20,6 +30,9 @@ class EncryptionServiceAesTest {
 	@Mock
 	private Resource res;
 
+	@TempDir
+	private Path tempDir;
+
 	@BeforeEach
 	void setUp() throws Exception {
 		when(res.exists()).thenReturn(true);
@@ -47,4 +60,20 @@ class EncryptionServiceAesTest {
 		assertEquals("such secret", actual);
 	}
 
+	@Test
+	void shouldSeekableStreamCopyRange() throws Exception {
+		// given
+		byte[] data = new byte[10000];
+		new Random(42).nextBytes(data);
+		Path file = Files.write(tempDir.resolve("encrypted"), encryptionServiceAes.encrypt(data));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// when
+		try (InputStream in = encryptionServiceAes.seekableDecryptingStream(Files.newByteChannel(file))) {
+			// the way byte ranges are cut out of a resource
+			StreamUtils.copyRange(in, out, 5000, 5099);
+		}
+		// then
+		assertArrayEquals(Arrays.copyOfRange(data, 5000, 5100), out.toByteArray());
+	}
+
 }
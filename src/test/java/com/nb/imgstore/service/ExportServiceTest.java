@@ -0,0 +1,219 @@
+package com.nb.imgstore.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.nb.imgstore.exception.NotFoundException;
+import com.nb.imgstore.model.ExportJob;
+import com.nb.imgstore.model.ExportStatus;
+import com.nb.imgstore.repo.ExportJobRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(MockitoExtension.class)
+class ExportServiceTest {
+	private static final byte[] ZIP_DATA = { 80, 75, 5, 6 };
+
+	@Mock
+	private ExportJobRepository exportJobRepository;
+
+	@Mock
+	private ImageStoreService imageStoreService;
+
+	@TempDir
+	private Path root;
+
+	private ExportService exportService;
+
+	@BeforeEach
+	void setUp() {
+		exportService = new ExportService(exportJobRepository, imageStoreService,
+				new PipelineMetrics(new SimpleMeterRegistry()), root, Duration.ofMinutes(10));
+	}
+
+	@AfterEach
+	void tearDown() {
+		exportService.shutdown();
+	}
+
+	@Test
+	void shouldCreateExportReuseRunningExport() {
+		// given
+		ExportJob job = givenJob(1L, ExportJob.Status.RUNNING);
+		when(imageStoreService.findLibraryVersion()).thenReturn("2:2");
+		when(exportJobRepository.findFirstByLibraryVersionAndStatusInOrderByIdDesc(any(), any())).thenReturn(Optional.of(job));
+		// when
+		ExportStatus status = exportService.createExport();
+		// then
+		assertAll(
+				() -> assertEquals(1L, status.id()),
+				() -> assertEquals(ExportJob.Status.RUNNING, status.status()),
+				() -> verify(exportJobRepository).findFirstByLibraryVersionAndStatusInOrderByIdDesc(anyString(), any()),
+				() -> verify(exportJobRepository, never()).save(any())
+		);
+	}
+
+	@Test
+	void shouldCreateExportStartNewExport_whenDoneExportFileMissing() {
+		// given
+		ExportJob done = givenJob(1L, ExportJob.Status.DONE);
+		when(imageStoreService.findLibraryVersion()).thenReturn("2:2");
+		when(exportJobRepository.findFirstByLibraryVersionAndStatusInOrderByIdDesc(any(), any())).thenReturn(Optional.of(done));
+		when(exportJobRepository.save(any())).then(a -> {
+			ExportJob job = a.getArgument(0);
+			if (job.getId() == null) {
+				job.setId(2L);
+			}
+			return job;
+		});
+		// when
+		ExportStatus status = exportService.createExport();
+		// then
+		assertAll(
+				() -> assertEquals(2L, status.id()),
+				() -> assertEquals(ExportJob.Status.PENDING, status.status())
+		);
+	}
+
+	@Test
+	void shouldProcessWriteZipAndKeepOlderExports() throws IOException {
+		// given
+		ExportJob job = givenJob(2L, ExportJob.Status.PENDING);
+		Files.write(root.resolve("1.zip"), ZIP_DATA);
+		doAnswer(a -> {
+			a.getArgument(0, OutputStream.class).write(ZIP_DATA);
+			return null;
+		}).when(imageStoreService).zipAll(any());
+		// when
+		exportService.process(job);
+		// then
+		assertAll(
+				() -> assertEquals(ExportJob.Status.DONE, job.getStatus()),
+				() -> assertEquals(ZIP_DATA.length, job.getSize()),
+				() -> assertArrayEquals(ZIP_DATA, Files.readAllBytes(exportService.getFile(2L))),
+				() -> assertFalse(Files.exists(root.resolve("2.tmp"))),
+				// downloads of the older export may be in progress
+				() -> assertTrue(Files.exists(root.resolve("1.zip"))),
+				() -> verify(exportJobRepository, never()).findByStatusAndIdLessThan(any(), any())
+		);
+	}
+
+	@Test
+	void shouldExpireReplacedExports_whenReplacedLongerThanGracePeriod() throws IOException {
+		// given
+		ExportJob replacing = givenJob(2L, ExportJob.Status.DONE);
+		ExportJob older = givenJob(1L, ExportJob.Status.DONE);
+		Files.write(root.resolve("1.zip"), ZIP_DATA);
+		Files.write(root.resolve("2.zip"), ZIP_DATA);
+		when(exportJobRepository.findFirstByStatusAndCompletedAtBeforeOrderByIdDesc(eq(ExportJob.Status.DONE), any()))
+				.thenReturn(Optional.of(replacing));
+		when(exportJobRepository.findByStatusAndIdLessThan(ExportJob.Status.DONE, 2L)).thenReturn(List.of(older));
+		Instant now = Instant.now();
+		// when
+		exportService.expireReplacedExports();
+		// then
+		ArgumentCaptor<Instant> completedBefore = ArgumentCaptor.forClass(Instant.class);
+		verify(exportJobRepository).findFirstByStatusAndCompletedAtBeforeOrderByIdDesc(eq(ExportJob.Status.DONE), completedBefore.capture());
+		assertAll(
+				() -> assertFalse(completedBefore.getValue().isBefore(now.minus(Duration.ofMinutes(10)))),
+				() -> assertEquals(ExportJob.Status.EXPIRED, older.getStatus()),
+				() -> assertFalse(Files.exists(root.resolve("1.zip"))),
+				() -> assertEquals(ExportJob.Status.DONE, replacing.getStatus()),
+				() -> assertTrue(Files.exists(root.resolve("2.zip")))
+		);
+	}
+
+	@Test
+	void shouldExpireReplacedExportsKeepAll_whenWithinGracePeriod() throws IOException {
+		// given
+		Files.write(root.resolve("1.zip"), ZIP_DATA);
+		when(exportJobRepository.findFirstByStatusAndCompletedAtBeforeOrderByIdDesc(eq(ExportJob.Status.DONE), any()))
+				.thenReturn(Optional.empty());
+		// when
+		exportService.expireReplacedExports();
+		// then
+		assertAll(
+				() -> assertTrue(Files.exists(root.resolve("1.zip"))),
+				() -> verify(exportJobRepository, never()).findByStatusAndIdLessThan(any(), any())
+		);
+	}
+
+	@Test
+	void shouldProcessFail_whenZipFails() {
+		// given
+		ExportJob job = givenJob(1L, ExportJob.Status.PENDING);
+		doThrow(new IllegalStateException("blob missing")).when(imageStoreService).zipAll(any());
+		// when
+		exportService.process(job);
+		// then
+		assertAll(
+				() -> assertEquals(ExportJob.Status.FAILED, job.getStatus()),
+				() -> assertEquals("blob missing", job.getLastError()),
+				() -> assertFalse(Files.exists(root.resolve("1.tmp"))),
+				() -> assertThrows(NotFoundException.class, () -> exportService.getFile(1L))
+		);
+	}
+
+	@Test
+	void shouldGetFileThrowNotFound_whenExportNotDone() {
+		// given
+		givenJob(1L, ExportJob.Status.RUNNING);
+		// when
+		NotFoundException e = assertThrows(NotFoundException.class, () -> exportService.getFile(1L));
+		// then
+		assertTrue(e.getMessage().contains("RUNNING"));
+	}
+
+	@Test
+	void shouldGetStatusThrowNotFound_whenExportMissing() {
+		// given
+		when(exportJobRepository.findById(1L)).thenReturn(Optional.empty());
+		// when
+		NotFoundException e = assertThrows(NotFoundException.class, () -> exportService.getStatus(1L));
+		// then
+		assertEquals("Export not found: 1", e.getMessage());
+	}
+
+	private ExportJob givenJob(Long id, ExportJob.Status status) {
+		ExportJob job = ExportJob.builder()
+				.id(id)
+				.status(status)
+				.libraryVersion("2:2")
+				.createdAt(Instant.now())
+				.build();
+		lenient().when(exportJobRepository.findById(id)).thenReturn(Optional.of(job));
+		return job;
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.nb.imgstore.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import com.nb.imgstore.model.ImageMetadata;
+import com.nb.imgstore.service.ImageCache.CachedImage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ImageCacheTest {
+	private static final ImageMetadata METADATA = new ImageMetadata("img.jpg", "image/jpeg", 10L, Instant.now(), "abcd");
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ImageCache imageCache = new ImageCache(DataSize.ofKilobytes(10), DataSize.ofBytes(10), meterRegistry);
+
+	@Test
+	void shouldGetCachedImage() {
+		// given
+		CachedImage image = new CachedImage(METADATA, "key1", new byte[10]);
+		imageCache.get("img.jpg", name -> image);
+		// when
+		CachedImage actual = imageCache.get("img.jpg").orElseThrow();
+		// then
+		assertAll(
+				() -> assertSame(image, actual),
+				() -> assertEquals(1, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count()),
+				() -> assertEquals(522, meterRegistry.get("imgstore.image-cache.size").gauge().value())
+		);
+	}
+
+	@Test
+	void shouldGetLoadImageOnce() {
+		// given
+		AtomicInteger loads = new AtomicInteger();
+		// when
+		CachedImage actual1 = imageCache.get("img.jpg", name -> new CachedImage(METADATA, "key" + loads.incrementAndGet(), null));
+		CachedImage actual2 = imageCache.get("img.jpg", name -> new CachedImage(METADATA, "key" + loads.incrementAndGet(), null));
+		// then
+		assertAll(
+				() -> assertEquals(1, loads.get()),
+				() -> assertSame(actual1, actual2)
+		);
+	}
+
+	@Test
+	void shouldFitContent_whenNotLargerThanMaxEntrySize() {
+		assertAll(
+				() -> assertTrue(imageCache.fits(10L)),
+				() -> assertFalse(imageCache.fits(11L)),
+				() -> assertFalse(imageCache.fits(null))
+		);
+	}
+
+}
@@ -4,34 +4,80 @@ import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.function.IOConsumer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.nb.imgstore.exception.InvalidImageException;
 import com.nb.imgstore.exception.NotFoundException;
+import com.nb.imgstore.extservice.blob.BlobStore;
 import com.nb.imgstore.extservice.img.ImageConverter;
 import com.nb.imgstore.model.Image;
+import com.nb.imgstore.model.ImageContent;
+import com.nb.imgstore.model.ImageFilter;
+import com.nb.imgstore.model.ImageMetadata;
+import com.nb.imgstore.repo.ImageContentRepository;
 import com.nb.imgstore.repo.ImageRepository;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @ExtendWith(MockitoExtension.class)
 class ImageStoreServiceTest {
-	private static final byte[] IMAGE1_DATA = { 1, 2 };
-	private static final byte[] IMAGE2_DATA = { 3, 4 };
+	// JPEG header: SOI, SOF0 with 100x80
+	private static final byte[] IMAGE1_DATA = { -1, -40, -1, -64, 0, 17, 8, 0, 80, 0, 100 };
+	// PNG header: signature, IHDR with 50x40
+	private static final byte[] IMAGE2_DATA = { -119, 80, 78, 71, 13, 10, 26, 10, 0, 0, 0, 13, 73, 72, 68, 82, 0, 0, 0, 50, 0, 0, 0, 40 };
+	// PNG header: signature, IHDR with 6000x4000
+	private static final byte[] LARGE_IMAGE_DATA = { -119, 80, 78, 71, 13, 10, 26, 10, 0, 0, 0, 13, 73, 72, 68, 82, 0, 0, 23, 112, 0, 0, 15, -96 };
+	private static final byte[] SCALED_IMAGE_DATA = { 6, 6 };
 	private static final byte[] ZIP_DATA = { 5, 5 };
 
 	@InjectMocks
@@ -49,11 +95,42 @@ class ImageStoreServiceTest {
 	@Mock
 	private ImageRepository imageRepository;
 
+	@Mock
+	private ImageContentRepository imageContentRepository;
+
+	@Mock
+	private BlobStore blobStore;
+
+	@Spy
+	private UploadExecutor uploadExecutor = new UploadExecutor(2, 2);
+
+	@Spy
+	private ImageCache imageCache = new ImageCache(DataSize.ofKilobytes(1), DataSize.ofKilobytes(1), new SimpleMeterRegistry());
+
+	@Mock
+	private VariantCache variantCache;
+
+	@Mock
+	private ThumbnailService thumbnailService;
+
+	@Mock
+	private TransactionTemplate transactionTemplate;
+
+	@Spy
+	private PipelineMetrics pipelineMetrics = new PipelineMetrics(new SimpleMeterRegistry());
+
+	@Captor
+	private ArgumentCaptor<List<Image>> savedImages;
+
+	@Captor
+	private ArgumentCaptor<List<ImageContent>> savedContents;
+
 	@Test
 	void shouldDownloadReturnContent() {
 		// given
 		String fileName = "img.jpg";
-		when(imageRepository.findByName(any())).thenReturn(Optional.of(Image.builder().data(IMAGE1_DATA).build()));
+		when(imageRepository.findByName(any())).thenReturn(Optional.of(Image.builder().size(11L).blobKey("key1").build()));
+		when(blobStore.get(any())).thenReturn(IMAGE1_DATA);
 		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
 		// when
 		byte[] actual = imageStoreService.download(fileName);
@@ -61,10 +138,69 @@ class ImageStoreServiceTest {
 		assertAll(
 				() -> assertArrayEquals(IMAGE1_DATA, actual),
 				() -> verify(imageRepository).findByName(fileName),
+				() -> verify(blobStore).get("key1"),
+				() -> verify(encryptionService).decrypt(IMAGE1_DATA)
+		);
+	}
+
+	@Test
+	void shouldDownloadReturnCachedContent() {
+		// given
+		String fileName = "img.jpg";
+		when(imageRepository.findByName(any())).thenReturn(Optional.of(Image.builder()
+				.name(fileName)
+				.type(MediaType.IMAGE_JPEG_VALUE)
+				.size((long) IMAGE1_DATA.length)
+				.contentHash("abcd")
+				.blobKey("key1")
+				.build()));
+		when(blobStore.get(any())).thenReturn(IMAGE1_DATA);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		// when
+		byte[] actual1 = imageStoreService.download(fileName);
+		ImageMetadata metadata = imageStoreService.findMetadata(fileName);
+		byte[] actual2 = imageStoreService.download(fileName);
+		// then
+		assertAll(
+				() -> assertArrayEquals(IMAGE1_DATA, actual1),
+				() -> assertArrayEquals(IMAGE1_DATA, actual2),
+				() -> assertEquals("abcd", metadata.contentHash()),
+				() -> assertEquals(MediaType.IMAGE_JPEG_VALUE, metadata.type()),
+				() -> verify(imageRepository).findByName(fileName),
+				() -> verify(imageRepository, never()).findMetadataByName(any()),
+				() -> verify(blobStore).get("key1"),
 				() -> verify(encryptionService).decrypt(IMAGE1_DATA)
 		);
 	}
 
+	@Test
+	void shouldDownloadCacheOnlyMetadata_whenLargerThanMaxEntrySize() {
+		// given
+		String fileName = "img.jpg";
+		when(imageRepository.findByName(any())).thenReturn(Optional.of(Image.builder()
+				.name(fileName)
+				.size(DataSize.ofKilobytes(2).toBytes())
+				.contentHash("abcd")
+				.blobKey("key1")
+				.build()));
+		when(blobStore.get(any())).thenReturn(IMAGE1_DATA);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		// when
+		byte[] actual1 = imageStoreService.download(fileName);
+		ImageMetadata metadata = imageStoreService.findMetadata(fileName);
+		byte[] actual2 = imageStoreService.download(fileName);
+		// then
+		assertAll(
+				() -> assertArrayEquals(IMAGE1_DATA, actual1),
+				() -> assertArrayEquals(IMAGE1_DATA, actual2),
+				() -> assertEquals("abcd", metadata.contentHash()),
+				() -> verify(imageRepository).findByName(fileName),
+				() -> verify(imageRepository, never()).findMetadataByName(any()),
+				() -> verify(blobStore, times(2)).get("key1"),
+				() -> verify(encryptionService, times(2)).decrypt(IMAGE1_DATA)
+		);
+	}
+
 	@Test
 	void shouldDownloadFail_whenImageNotFound() {
 		// given
@@ -81,45 +217,383 @@ class ImageStoreServiceTest {
 	}
 
 	@Test
-	void shouldDownloadAllReturnZipContent() {
+	@SuppressWarnings("unchecked")
+	void shouldDownloadVariantScaleImage() {
 		// given
-		List<Image> images = List.of(Image.builder().build());
-		when(imageRepository.findAll()).thenReturn(images);
-		when(imageZipService.zipAll(any())).thenReturn(ZIP_DATA);
+		String fileName = "img.jpg";
+		ReflectionTestUtils.setField(imageStoreService, "maxDim", 5000);
+		when(variantCache.get(any(), any())).then(a -> a.getArgument(1, Supplier.class).get());
+		when(thumbnailService.findThumbnail(any(), anyInt(), anyInt())).thenReturn(Optional.empty());
+		when(imageRepository.findByName(any())).thenReturn(Optional.of(Image.builder().blobKey("key1").build()));
+		when(encryptionService.seekableDecryptingStream(any())).thenReturn(new ByteArrayInputStream(IMAGE1_DATA));
+		when(blobStore.get(any())).thenReturn(IMAGE1_DATA);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		when(imageConverter.scale(any(), eq(50), eq(5000))).thenReturn(SCALED_IMAGE_DATA);
 		// when
-		byte[] actual = imageStoreService.downloadAll();
+		byte[] actual = imageStoreService.downloadVariant(fileName, 50, null);
 		// then
 		assertAll(
-				() -> assertArrayEquals(ZIP_DATA, actual),
-				() -> verify(imageRepository).findAll(),
-				() -> verify(imageZipService).zipAll(images)
+				() -> assertArrayEquals(SCALED_IMAGE_DATA, actual),
+				() -> verify(variantCache).get(eq("img.jpg@50x5000"), any()),
+				() -> verify(imageConverter).scale(IMAGE1_DATA, 50, 5000),
+				// the original is not cached for the variant
+				() -> assertEquals(Optional.empty(), imageCache.get(fileName))
+		);
+	}
+
+	@Test
+	void shouldDownloadVariantReturnOriginal_whenWithinBounds() {
+		// given
+		ReflectionTestUtils.setField(imageStoreService, "maxDim", 5000);
+		when(thumbnailService.findThumbnail(any(), anyInt(), anyInt())).thenReturn(Optional.empty());
+		when(imageRepository.findByName(any())).thenReturn(Optional.of(Image.builder().blobKey("key1").build()));
+		when(encryptionService.seekableDecryptingStream(any())).thenReturn(new ByteArrayInputStream(IMAGE1_DATA));
+		when(blobStore.get(any())).thenReturn(IMAGE1_DATA);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		// when
+		byte[] actual = imageStoreService.downloadVariant("img.jpg", 200, 200);
+		// then
+		assertAll(
+				() -> assertArrayEquals(IMAGE1_DATA, actual),
+				// the original is not copied into the variant cache
+				() -> verify(variantCache, never()).get(any(), any()),
+				() -> verify(imageConverter, never()).scale(any(), anyInt(), anyInt())
+		);
+	}
+
+	@Test
+	void shouldDownloadVariantReturnOriginal_whenCachedAndWithinBounds() {
+		// given
+		ReflectionTestUtils.setField(imageStoreService, "maxDim", 5000);
+		when(thumbnailService.findThumbnail(any(), anyInt(), anyInt())).thenReturn(Optional.empty());
+		when(imageRepository.findByName(any())).thenReturn(Optional.of(Image.builder().size(11L).blobKey("key1").build()));
+		when(blobStore.get(any())).thenReturn(IMAGE1_DATA);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		imageStoreService.download("img.jpg");
+		// when
+		byte[] actual = imageStoreService.downloadVariant("img.jpg", 4000, null);
+		// then
+		assertAll(
+				() -> assertArrayEquals(IMAGE1_DATA, actual),
+				() -> verify(imageRepository, times(1)).findByName("img.jpg"),
+				() -> verify(blobStore, never()).openChannel(any()),
+				() -> verify(variantCache, never()).get(any(), any())
+		);
+	}
+
+	@Test
+	void shouldDownloadVariantReturnThumbnail_whenPregenerated() {
+		// given
+		ReflectionTestUtils.setField(imageStoreService, "maxDim", 5000);
+		when(thumbnailService.findThumbnail(any(), anyInt(), anyInt())).thenReturn(Optional.of(SCALED_IMAGE_DATA));
+		// when
+		byte[] actual = imageStoreService.downloadVariant("img.jpg", 128, 128);
+		// then
+		assertAll(
+				() -> assertArrayEquals(SCALED_IMAGE_DATA, actual),
+				() -> verify(thumbnailService).findThumbnail("img.jpg", 128, 128),
+				() -> verify(variantCache, never()).get(any(), any()),
+				() -> verify(imageConverter, never()).scale(any(), anyInt(), anyInt()),
+				() -> verify(blobStore, never()).get(any())
+		);
+	}
+
+	@Test
+	void shouldDownloadVariantReturnOriginal_whenNotBoundedUnderMaxDimension() {
+		// given
+		ReflectionTestUtils.setField(imageStoreService, "maxDim", 5000);
+		when(imageRepository.findByName(any())).thenReturn(Optional.of(Image.builder().blobKey("key1").build()));
+		when(blobStore.get(any())).thenReturn(IMAGE1_DATA);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		// when
+		byte[] actual = imageStoreService.downloadVariant("img.jpg", 6000, null);
+		// then
+		assertAll(
+				() -> assertArrayEquals(IMAGE1_DATA, actual),
+				() -> verify(variantCache, never()).get(any(), any())
+		);
+	}
+
+	@Test
+	void shouldFindMetadataByName() {
+		// given
+		String fileName = "img.jpg";
+		ImageMetadata metadata = new ImageMetadata(fileName, MediaType.IMAGE_JPEG_VALUE, 2L, Instant.now(), "abcd");
+		when(imageRepository.findMetadataByName(any())).thenReturn(Optional.of(metadata));
+		// when
+		ImageMetadata actual = imageStoreService.findMetadata(fileName);
+		// then
+		assertAll(
+				() -> assertEquals(metadata, actual),
+				() -> verify(imageRepository).findMetadataByName(fileName),
+				() -> verify(blobStore, never()).get(any()),
+				() -> verify(encryptionService, never()).decrypt(any())
+		);
+	}
+
+	@Test
+	void shouldFindMetadataFail_whenImageNotFound() {
+		// given
+		String fileName = "img.jpg";
+		when(imageRepository.findMetadataByName(any())).thenReturn(Optional.empty());
+		// when
+		NotFoundException ex = assertThrows(NotFoundException.class, () -> imageStoreService.findMetadata(fileName));
+		// then
+		assertEquals("Image not found: " + fileName, ex.getMessage());
+	}
+
+	@Test
+	void shouldFindMetadataReturnPage() {
+		// given
+		Pageable pageable = PageRequest.of(0, 10);
+		Page<ImageMetadata> page = new PageImpl<>(List.of(new ImageMetadata("img.jpg", MediaType.IMAGE_JPEG_VALUE, 2L, Instant.now(), "abcd")));
+		when(imageRepository.findAllBy(any())).thenReturn(page);
+		// when
+		Page<ImageMetadata> actual = imageStoreService.findMetadata(pageable);
+		// then
+		assertAll(
+				() -> assertEquals(page, actual),
+				() -> verify(imageRepository).findAllBy(pageable),
+				() -> verify(blobStore, never()).get(any())
+		);
+	}
+
+	@Test
+	void shouldDownloadAllZipImagesPageByPage() {
+		// given
+		ReflectionTestUtils.setField(imageStoreService, "zipPageSize", 2);
+		Image image1 = Image.builder().id(1L).build();
+		Image image2 = Image.builder().id(2L).build();
+		Image image3 = Image.builder().id(3L).build();
+		when(imageRepository.findByIdGreaterThanOrderByIdAsc(0L, Limit.of(2))).thenReturn(List.of(image1, image2));
+		when(imageRepository.findByIdGreaterThanOrderByIdAsc(2L, Limit.of(2))).thenReturn(List.of(image3));
+		when(imageRepository.findByIdGreaterThanOrderByIdAsc(3L, Limit.of(2))).thenReturn(List.of());
+		List<Image> zipped = new ArrayList<>();
+		doAnswer(a -> {
+			Iterable<Image> images = a.getArgument(0);
+			images.forEach(zipped::add);
+			a.getArgument(1, OutputStream.class).write(ZIP_DATA);
+			return null;
+		}).when(imageZipService).zipAll(ArgumentMatchers.<Iterable<Image>>any(), any(OutputStream.class));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// when
+		imageStoreService.downloadAll(out);
+		// then
+		assertAll(
+				() -> assertArrayEquals(ZIP_DATA, out.toByteArray()),
+				() -> assertEquals(List.of(image1, image2, image3), zipped),
+				() -> verify(imageRepository, never()).findAll()
+		);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldDownloadZipMatchingImagesPageByPage() {
+		// given
+		ReflectionTestUtils.setField(imageStoreService, "zipPageSize", 2);
+		Image image1 = Image.builder().id(1L).build();
+		Image image2 = Image.builder().id(5L).build();
+		Image image3 = Image.builder().id(9L).build();
+		when(imageRepository.findBy(any(Specification.class), any(Function.class)))
+				.thenReturn(List.of(image1, image2), List.of(image3), List.of());
+		List<Image> zipped = new ArrayList<>();
+		doAnswer(a -> {
+			Iterable<Image> images = a.getArgument(0);
+			images.forEach(zipped::add);
+			a.getArgument(1, OutputStream.class).write(ZIP_DATA);
+			return null;
+		}).when(imageZipService).zipAll(ArgumentMatchers.<Iterable<Image>>any(), any(OutputStream.class));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// when
+		imageStoreService.downloadZip(new ImageFilter(null, null, null, null, "image/png"), out);
+		// then
+		assertAll(
+				() -> assertArrayEquals(ZIP_DATA, out.toByteArray()),
+				() -> assertEquals(List.of(image1, image2, image3), zipped),
+				() -> verify(imageRepository, times(3)).findBy(any(Specification.class), any(Function.class)),
+				() -> verify(imageRepository, never()).findByIdGreaterThanOrderByIdAsc(any(), any())
 		);
 	}
 
 	@Test
 	void shouldUploadSaveImages() {
 		// given
+		ReflectionTestUtils.setField(imageStoreService, "maxDim", 5000);
 		MultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
 		MultipartFile file2 = new MockMultipartFile("images", "img2.png", MediaType.IMAGE_PNG_VALUE, IMAGE2_DATA);
 		MultipartFile[] files = { file1, file2 };
-		when(imageConverter.scale(any())).then(a -> a.getArgument(0));
-		when(encryptionService.encrypt(any())).then(a -> a.getArgument(0));
-		when(imageRepository.save(any())).thenReturn(
+		Map<String, byte[]> blobs = givenStreamingBlobStore();
+		when(imageRepository.saveAll(any())).thenReturn(List.of(
 				Image.builder().name("abcd0123.jpg").build(),
 				Image.builder().name("efgh5678.png").build()
-		);
+		));
+		when(transactionTemplate.execute(any())).then(a -> a.getArgument(0, TransactionCallback.class).doInTransaction(null));
 		// when
 		List<String> actual = imageStoreService.upload(files);
 		// then
+		verify(imageRepository).saveAll(savedImages.capture());
+		List<Image> images = savedImages.getValue();
 		assertAll(
 				() -> assertEquals(2, actual.size()),
 				() -> assertEquals("abcd0123.jpg", actual.get(0)),
 				() -> assertEquals("efgh5678.png", actual.get(1)),
-				() -> verify(imageConverter).scale(IMAGE1_DATA),
-				() -> verify(imageConverter).scale(IMAGE2_DATA),
-				() -> verify(encryptionService).encrypt(IMAGE1_DATA),
-				() -> verify(encryptionService).encrypt(IMAGE2_DATA),
-				() -> verify(imageRepository, times(2)).save(any(Image.class))
+				() -> verify(imageConverter, never()).scale(any(Path.class), any(Path.class)),
+				() -> assertEquals(2, blobs.size()),
+				() -> assertArrayEquals(IMAGE1_DATA, blobs.get(images.get(0).getBlobKey())),
+				() -> assertArrayEquals(IMAGE2_DATA, blobs.get(images.get(1).getBlobKey())),
+				() -> assertEquals(List.of(DigestUtils.sha256Hex(IMAGE1_DATA), DigestUtils.sha256Hex(IMAGE2_DATA)),
+						images.stream().map(Image::getContentHash).toList()),
+				() -> assertEquals(List.of((long) IMAGE1_DATA.length, (long) IMAGE2_DATA.length),
+						images.stream().map(Image::getSize).toList()),
+				() -> assertEquals(List.of(crc32(IMAGE1_DATA), crc32(IMAGE2_DATA)),
+						images.stream().map(Image::getCrc32).toList()),
+				() -> verify(imageRepository, never()).save(any()),
+				() -> verify(thumbnailService).enqueue(List.of("abcd0123.jpg", "efgh5678.png"))
+		);
+	}
+
+	@Test
+	void shouldUploadShareStoredContent_whenDuplicate() {
+		// given
+		MultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		MultipartFile[] files = { file1 };
+		ImageContent stored = ImageContent.builder()
+				.id(7L)
+				.originalHash(DigestUtils.sha256Hex(IMAGE1_DATA))
+				.size(11L)
+				.contentHash("hash1")
+				.crc32(42L)
+				.blobKey("key1")
+				.refCount(1)
+				.build();
+		when(imageContentRepository.findByOriginalHash(any())).thenReturn(Optional.of(stored));
+		when(imageContentRepository.findByOriginalHashIn(any())).thenReturn(List.of(stored));
+		when(imageRepository.saveAll(any())).then(a -> a.getArgument(0));
+		when(transactionTemplate.execute(any())).then(a -> a.getArgument(0, TransactionCallback.class).doInTransaction(null));
+		// when
+		imageStoreService.upload(files);
+		// then
+		assertAll(
+				() -> verify(imageContentRepository).findByOriginalHash(DigestUtils.sha256Hex(IMAGE1_DATA)),
+				() -> verify(imageConverter, never()).scale(any(Path.class), any(Path.class)),
+				() -> verify(encryptionService, never()).encryptingStream(any()),
+				() -> verify(blobStore, never()).put(ArgumentMatchers.<IOConsumer<OutputStream>>any()),
+				() -> verify(imageContentRepository).addReferences(7L, 1),
+				() -> verify(imageRepository).saveAll(savedImages.capture()),
+				() -> assertEquals("key1", savedImages.getValue().get(0).getBlobKey()),
+				() -> assertEquals("hash1", savedImages.getValue().get(0).getContentHash()),
+				() -> assertEquals(42L, savedImages.getValue().get(0).getCrc32())
+		);
+	}
+
+	@Test
+	void shouldUploadStoreContentOnce_whenDuplicatesInRequest() {
+		// given
+		ReflectionTestUtils.setField(imageStoreService, "maxDim", 5000);
+		MultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		MultipartFile file2 = new MockMultipartFile("images", "img2.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		MultipartFile[] files = { file1, file2 };
+		givenStreamingBlobStore();
+		when(imageRepository.saveAll(any())).then(a -> a.getArgument(0));
+		when(transactionTemplate.execute(any())).then(a -> a.getArgument(0, TransactionCallback.class).doInTransaction(null));
+		// when
+		imageStoreService.upload(files);
+		// then
+		verify(imageContentRepository).saveAll(savedContents.capture());
+		verify(imageRepository).saveAll(savedImages.capture());
+		String sharedKey = savedContents.getValue().get(0).getBlobKey();
+		assertAll(
+				() -> assertEquals(1, savedContents.getValue().size()),
+				() -> assertEquals(2, savedContents.getValue().get(0).getRefCount()),
+				() -> assertEquals(List.of(sharedKey, sharedKey), savedImages.getValue().stream().map(Image::getBlobKey).toList()),
+				() -> verify(blobStore).delete(sharedKey.equals("key1") ? "key2" : "key1")
+		);
+	}
+
+	@Test
+	void shouldUploadDeleteStoredContents_whenSavingFails() {
+		// given
+		ReflectionTestUtils.setField(imageStoreService, "maxDim", 5000);
+		MultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		MultipartFile file2 = new MockMultipartFile("images", "img2.png", MediaType.IMAGE_PNG_VALUE, IMAGE2_DATA);
+		MultipartFile[] files = { file1, file2 };
+		Map<String, byte[]> blobs = givenStreamingBlobStore();
+		when(transactionTemplate.execute(any())).thenThrow(new DataIntegrityViolationException("duplicate hash"));
+		// when
+		DataIntegrityViolationException ex = assertThrows(DataIntegrityViolationException.class, () -> imageStoreService.upload(files));
+		// then
+		assertAll(
+				() -> assertEquals("duplicate hash", ex.getMessage()),
+				() -> verify(transactionTemplate, times(2)).execute(any()),
+				() -> assertEquals(2, blobs.size()),
+				() -> blobs.keySet().forEach(key -> verify(blobStore).delete(key))
+		);
+	}
+
+	@Test
+	void shouldUploadDeleteStoredContents_whenAnotherFileFails() {
+		// given
+		ReflectionTestUtils.setField(imageStoreService, "maxDim", 5000);
+		MultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		MultipartFile file2 = new MockMultipartFile("images", "img2.jpg", MediaType.IMAGE_JPEG_VALUE, new byte[] { 1, 2 });
+		MultipartFile[] files = { file1, file2 };
+		Map<String, byte[]> blobs = givenStreamingBlobStore();
+		// when
+		InvalidImageException ex = assertThrows(InvalidImageException.class, () -> imageStoreService.upload(files));
+		// then
+		assertAll(
+				() -> assertEquals("Malformed image: img2.jpg", ex.getMessage()),
+				() -> assertEquals(1, blobs.size()),
+				() -> blobs.keySet().forEach(key -> verify(blobStore).delete(key)),
+				() -> verify(transactionTemplate, never()).execute(any())
+		);
+	}
+
+	@Test
+	void shouldUploadScaleImage_whenLargerThanMaxDimension() {
+		// given
+		ReflectionTestUtils.setField(imageStoreService, "maxDim", 5000);
+		MultipartFile file1 = new MockMultipartFile("images", "img1.png", MediaType.IMAGE_PNG_VALUE, LARGE_IMAGE_DATA);
+		MultipartFile[] files = { file1 };
+		List<Path> tempFiles = new ArrayList<>();
+		doAnswer(a -> {
+			tempFiles.add(a.getArgument(0));
+			tempFiles.add(a.getArgument(1));
+			assertArrayEquals(LARGE_IMAGE_DATA, Files.readAllBytes(a.getArgument(0)));
+			Files.write(a.getArgument(1), SCALED_IMAGE_DATA);
+			return null;
+		}).when(imageConverter).scale(any(Path.class), any(Path.class));
+		Map<String, byte[]> blobs = givenStreamingBlobStore();
+		when(imageRepository.saveAll(any())).then(a -> a.getArgument(0));
+		when(transactionTemplate.execute(any())).then(a -> a.getArgument(0, TransactionCallback.class).doInTransaction(null));
+		// when
+		imageStoreService.upload(files);
+		// then
+		verify(imageRepository).saveAll(savedImages.capture());
+		Image image = savedImages.getValue().get(0);
+		assertAll(
+				() -> assertArrayEquals(SCALED_IMAGE_DATA, blobs.get(image.getBlobKey())),
+				() -> assertEquals(SCALED_IMAGE_DATA.length, image.getSize()),
+				() -> assertEquals(DigestUtils.sha256Hex(SCALED_IMAGE_DATA), image.getContentHash()),
+				() -> assertEquals(crc32(SCALED_IMAGE_DATA), image.getCrc32()),
+				() -> assertEquals(DigestUtils.sha256Hex(LARGE_IMAGE_DATA), image.getOriginalHash()),
+				() -> assertTrue(tempFiles.stream().noneMatch(Files::exists))
+		);
+	}
+
+	@Test
+	void shouldUploadFail_whenMalformedImage() {
+		// given
+		MultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, new byte[] { 1, 2 });
+		MultipartFile[] files = { file1 };
+		// when
+		InvalidImageException ex = assertThrows(InvalidImageException.class, () -> imageStoreService.upload(files));
+		// then
+		assertAll(
+				() -> assertEquals("Malformed image: img1.jpg", ex.getMessage()),
+				() -> verify(imageConverter, never()).scale(any(Path.class), any(Path.class)),
+				() -> verify(encryptionService, never()).encryptingStream(any()),
+				() -> verify(imageRepository, never()).saveAll(any())
 		);
 	}
 
@@ -133,9 +607,25 @@ class ImageStoreServiceTest {
 		// then
 		assertAll(
 				() -> assertEquals("Only png and jpg allowed: img1.gif", ex.getMessage()),
-				() -> verify(imageConverter, never()).scale(any()),
-				() -> verify(encryptionService, never()).encrypt(any()),
-				() -> verify(imageRepository, never()).save(any())
+				() -> verify(imageConverter, never()).scale(any(Path.class), any(Path.class)),
+				() -> verify(encryptionService, never()).encryptingStream(any()),
+				() -> verify(imageRepository, never()).saveAll(any())
+		);
+	}
+
+	@Test
+	void shouldUploadValidateAllFilesBeforeProcessing() {
+		// given
+		MultipartFile file1 = new MockMultipartFile("images", "img1.jpg", MediaType.IMAGE_JPEG_VALUE, IMAGE1_DATA);
+		MultipartFile file2 = new MockMultipartFile("images", "img2.gif", MediaType.IMAGE_GIF_VALUE, IMAGE2_DATA);
+		MultipartFile[] files = { file1, file2 };
+		// when
+		InvalidImageException ex = assertThrows(InvalidImageException.class, () -> imageStoreService.upload(files));
+		// then
+		assertAll(
+				() -> assertEquals("Only png and jpg allowed: img2.gif", ex.getMessage()),
+				() -> verify(encryptionService, never()).encryptingStream(any()),
+				() -> verify(blobStore, never()).put(ArgumentMatchers.<IOConsumer<OutputStream>>any())
 		);
 	}
 
@@ -149,10 +639,34 @@ class ImageStoreServiceTest {
 		// then
 		assertAll(
 				() -> assertEquals("Missing extension: img1", ex.getMessage()),
-				() -> verify(imageConverter, never()).scale(any()),
-				() -> verify(encryptionService, never()).encrypt(any()),
-				() -> verify(imageRepository, never()).save(any())
+				() -> verify(imageConverter, never()).scale(any(Path.class), any(Path.class)),
+				() -> verify(encryptionService, never()).encryptingStream(any()),
+				() -> verify(imageRepository, never()).saveAll(any())
 		);
 	}
 
+	/**
+	 * The encryption is a pass-through, the blobs are collected by their generated keys.
+	 */
+	private Map<String, byte[]> givenStreamingBlobStore() {
+		Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+		AtomicInteger keys = new AtomicInteger();
+		when(encryptionService.encryptingStream(any())).then(a -> a.getArgument(0));
+		when(blobStore.put(ArgumentMatchers.<IOConsumer<OutputStream>>any())).then(a -> {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			IOConsumer<OutputStream> writer = a.getArgument(0);
+			writer.accept(out);
+			String key = "key" + keys.incrementAndGet();
+			blobs.put(key, out.toByteArray());
+			return key;
+		});
+		return blobs;
+	}
+
+	private static long crc32(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
 }
@@ -2,22 +2,36 @@ package com.nb.imgstore.service;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
 
+import com.nb.imgstore.extservice.blob.BlobStore;
 import com.nb.imgstore.model.Image;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 @ExtendWith(MockitoExtension.class)
 class ImageZipServiceTest {
 	private static final byte[] IMAGE1_DATA = { 1, 2 };
@@ -30,13 +44,29 @@ class ImageZipServiceTest {
 	@Mock
 	private EncryptionService encryptionService;
 
+	@Mock
+	private BlobStore blobStore;
+
+	@Spy
+	private PipelineMetrics pipelineMetrics = new PipelineMetrics(new SimpleMeterRegistry());
+
+	@Spy
+	private ReadAheadExecutor readAheadExecutor = new ReadAheadExecutor(2, 2, DataSize.ofBytes(4));
+
+	@AfterEach
+	void tearDown() {
+		readAheadExecutor.shutdown();
+	}
+
 	@Test
 	void shouldZipAllSuccessfully() {
 		// given
 		List<Image> images = List.of(
-				Image.builder().id(1L).name("img1.jpg").data(IMAGE1_DATA).build(),
-				Image.builder().id(2L).name("img2.jpg").data(IMAGE2_DATA).build()
+				Image.builder().id(1L).name("img1.jpg").blobKey("key1").build(),
+				Image.builder().id(2L).name("img2.jpg").blobKey("key2").build()
 		);
+		when(blobStore.get("key1")).thenReturn(IMAGE1_DATA);
+		when(blobStore.get("key2")).thenReturn(IMAGE2_DATA);
 		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
 		// when
 		byte[] actual = imageZipService.zipAll(images);
@@ -48,6 +78,78 @@ class ImageZipServiceTest {
 		);
 	}
 
+	@Test
+	void shouldZipAllStreamEntriesToOutput() throws Exception {
+		// given
+		List<Image> images = List.of(
+				Image.builder().id(1L).name("img1.jpg").blobKey("key1").build(),
+				Image.builder().id(2L).name("img2.jpg").blobKey("key2").build()
+		);
+		when(blobStore.get("key1")).thenReturn(IMAGE1_DATA);
+		when(blobStore.get("key2")).thenReturn(IMAGE2_DATA);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// when
+		imageZipService.zipAll(images, out);
+		// then
+		try (ZipInputStream zipis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			assertEquals("img1.jpg", zipis.getNextEntry().getName());
+			assertArrayEquals(IMAGE1_DATA, zipis.readAllBytes());
+			assertEquals("img2.jpg", zipis.getNextEntry().getName());
+			assertArrayEquals(IMAGE2_DATA, zipis.readAllBytes());
+			assertNull(zipis.getNextEntry());
+		}
+	}
+
+	@Test
+	void shouldZipAllStoreCompressedImages() throws Exception {
+		// given
+		List<Image> images = List.of(
+				Image.builder().id(1L).name("img1.jpg").type("image/jpeg").crc32(crc32(IMAGE1_DATA)).blobKey("key1").build(),
+				Image.builder().id(2L).name("img2.png").type("image/png").blobKey("key2").build()
+		);
+		when(blobStore.get("key1")).thenReturn(IMAGE1_DATA);
+		when(blobStore.get("key2")).thenReturn(IMAGE2_DATA);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// when
+		imageZipService.zipAll(images, out);
+		// then
+		try (ZipInputStream zipis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			ZipEntry entry1 = zipis.getNextEntry();
+			assertAll(
+					() -> assertEquals(ZipEntry.STORED, entry1.getMethod()),
+					() -> assertEquals(crc32(IMAGE1_DATA), entry1.getCrc()),
+					() -> assertArrayEquals(IMAGE1_DATA, zipis.readAllBytes())
+			);
+			ZipEntry entry2 = zipis.getNextEntry();
+			assertAll(
+					() -> assertEquals(ZipEntry.STORED, entry2.getMethod()),
+					() -> assertEquals(crc32(IMAGE2_DATA), entry2.getCrc()),
+					() -> assertArrayEquals(IMAGE2_DATA, zipis.readAllBytes())
+			);
+		}
+	}
+
+	@Test
+	void shouldZipAllDeflateImages_whenDeflatedPolicy() throws Exception {
+		// given
+		ReflectionTestUtils.setField(imageZipService, "compression", ImageZipService.Compression.DEFLATED);
+		List<Image> images = List.of(
+				Image.builder().id(1L).name("img1.jpg").type("image/jpeg").crc32(crc32(IMAGE1_DATA)).blobKey("key1").build()
+		);
+		when(blobStore.get("key1")).thenReturn(IMAGE1_DATA);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// when
+		imageZipService.zipAll(images, out);
+		// then
+		try (ZipInputStream zipis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			assertEquals(ZipEntry.DEFLATED, zipis.getNextEntry().getMethod());
+			assertArrayEquals(IMAGE1_DATA, zipis.readAllBytes());
+		}
+	}
+
 	@Test
 	void shouldZipAllSkipEmptyList() {
 		// given
@@ -61,4 +163,10 @@ class ImageZipServiceTest {
 		);
 	}
 
+	private static long crc32(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
 }
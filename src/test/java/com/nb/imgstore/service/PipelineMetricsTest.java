@@ -0,0 +1,60 @@
+package com.nb.imgstore.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import com.nb.imgstore.service.PipelineMetrics.Stage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PipelineMetricsTest {
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final PipelineMetrics pipelineMetrics = new PipelineMetrics(meterRegistry);
+
+	@Test
+	void shouldTimeStage_whileCountingActiveTasks() {
+		// when
+		double active = pipelineMetrics.time(Stage.SCALE,
+				() -> meterRegistry.get("imgstore.stage.active").tag("stage", "scale").gauge().value());
+		// then
+		assertAll(
+				() -> assertEquals(1, active),
+				() -> assertEquals(0, meterRegistry.get("imgstore.stage.active").tag("stage", "scale").gauge().value()),
+				() -> assertEquals(1, meterRegistry.get("imgstore.stage").tag("stage", "scale").timer().count()),
+				() -> assertEquals(0, meterRegistry.get("imgstore.stage").tag("stage", "encrypt").timer().count())
+		);
+	}
+
+	@Test
+	void shouldTimeStage_whenTaskFails() {
+		// when
+		assertThrows(IllegalStateException.class, () -> pipelineMetrics.time(Stage.DECRYPT, () -> {
+			throw new IllegalStateException("decryption failed");
+		}));
+		// then
+		assertAll(
+				() -> assertEquals(1, meterRegistry.get("imgstore.stage").tag("stage", "decrypt").timer().count()),
+				() -> assertEquals(0, meterRegistry.get("imgstore.stage.active").tag("stage", "decrypt").gauge().value())
+		);
+	}
+
+	@Test
+	void shouldCountBytes() {
+		// when
+		pipelineMetrics.countIn(10);
+		pipelineMetrics.countOut(3);
+		pipelineMetrics.countOut(4);
+		pipelineMetrics.recordSize(Stage.READ, 10);
+		// then
+		assertAll(
+				() -> assertEquals(10, meterRegistry.get("imgstore.bytes").tag("direction", "in").counter().count()),
+				() -> assertEquals(7, meterRegistry.get("imgstore.bytes").tag("direction", "out").counter().count()),
+				() -> assertEquals(10, meterRegistry.get("imgstore.stage.bytes").tag("stage", "read").summary().totalAmount())
+		);
+	}
+
+}
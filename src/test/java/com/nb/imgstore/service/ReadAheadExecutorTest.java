@@ -0,0 +1,88 @@
+package com.nb.imgstore.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+class ReadAheadExecutorTest {
+	private final ReadAheadExecutor readAheadExecutor = new ReadAheadExecutor(4, 8, DataSize.ofBytes(30));
+
+	@AfterEach
+	void tearDown() {
+		readAheadExecutor.shutdown();
+	}
+
+	@Test
+	void shouldForEachOrderedKeepOrderAndMaxSize() throws Exception {
+		// given
+		List<Integer> items = IntStream.range(0, 20).boxed().toList();
+		AtomicLong pendingSize = new AtomicLong();
+		AtomicLong maxPendingSize = new AtomicLong();
+		List<Integer> actual = new ArrayList<>();
+		// when
+		readAheadExecutor.forEachOrdered(items, i -> 10, i -> {
+			maxPendingSize.accumulateAndGet(pendingSize.addAndGet(10), Math::max);
+			sleep(5 * (i % 3));
+			return i * 10;
+		}, result -> {
+			actual.add(result);
+			pendingSize.addAndGet(-10);
+		});
+		// then
+		assertAll(
+				() -> assertEquals(items.stream().map(i -> i * 10).toList(), actual),
+				() -> assertTrue(maxPendingSize.get() <= 30, "max pending size: " + maxPendingSize.get())
+		);
+	}
+
+	@Test
+	void shouldForEachOrderedPassItemOverMaxSize() throws Exception {
+		// given
+		List<Integer> actual = new ArrayList<>();
+		// when
+		readAheadExecutor.forEachOrdered(List.of(1, 2), i -> 100, i -> i, actual::add);
+		// then
+		assertEquals(List.of(1, 2), actual);
+	}
+
+	@Test
+	void shouldForEachOrderedRethrowFailure_andStopReading() {
+		// given
+		AtomicInteger read = new AtomicInteger();
+		Iterable<Integer> items = () -> IntStream.range(0, 100).peek(i -> read.incrementAndGet()).iterator();
+		// when
+		IllegalStateException ex = assertThrows(IllegalStateException.class, () -> readAheadExecutor.forEachOrdered(items,
+				i -> 10, i -> {
+					if (i == 1) {
+						throw new IllegalStateException("Decryption failed: " + i);
+					}
+					return i;
+				}, i -> {
+				}));
+		// then
+		assertAll(
+				() -> assertEquals("Decryption failed: 1", ex.getMessage()),
+				() -> assertTrue(read.get() < 100, "read: " + read.get())
+		);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
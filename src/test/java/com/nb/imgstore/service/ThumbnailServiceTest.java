@@ -0,0 +1,179 @@
+package com.nb.imgstore.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.nb.imgstore.extservice.blob.BlobStore;
+import com.nb.imgstore.extservice.img.ImageConverter;
+import com.nb.imgstore.model.Image;
+import com.nb.imgstore.model.ImageVariant;
+import com.nb.imgstore.model.ThumbnailJob;
+import com.nb.imgstore.repo.ImageRepository;
+import com.nb.imgstore.repo.ImageVariantRepository;
+import com.nb.imgstore.repo.ThumbnailJobRepository;
+
+@ExtendWith(MockitoExtension.class)
+class ThumbnailServiceTest {
+	// JPEG header: SOI, SOF0 with 100x80
+	private static final byte[] SMALL_IMAGE_DATA = { -1, -40, -1, -64, 0, 17, 8, 0, 80, 0, 100 };
+	// PNG header: signature, IHDR with 6000x4000
+	private static final byte[] LARGE_IMAGE_DATA = { -119, 80, 78, 71, 13, 10, 26, 10, 0, 0, 0, 13, 73, 72, 68, 82, 0, 0, 23, 112, 0, 0, 15, -96 };
+	private static final byte[] THUMBNAIL_DATA = { 6, 6 };
+
+	@Mock
+	private ThumbnailJobRepository jobRepository;
+
+	@Mock
+	private ImageVariantRepository variantRepository;
+
+	@Mock
+	private ImageRepository imageRepository;
+
+	@Mock
+	private BlobStore blobStore;
+
+	@Mock
+	private EncryptionService encryptionService;
+
+	@Mock
+	private ImageConverter imageConverter;
+
+	@Captor
+	private ArgumentCaptor<ImageVariant> savedVariant;
+
+	private ThumbnailService thumbnailService;
+
+	@BeforeEach
+	void setUp() {
+		thumbnailService = new ThumbnailService(jobRepository, variantRepository, imageRepository, blobStore,
+				encryptionService, imageConverter, List.of(512, 128), 2, Duration.ofMinutes(1));
+	}
+
+	@AfterEach
+	void tearDown() {
+		thumbnailService.shutdown();
+	}
+
+	@Test
+	void shouldProcessGenerateThumbnails() {
+		// given
+		ThumbnailJob job = givenPendingJob(LARGE_IMAGE_DATA);
+		when(imageConverter.scale(any(), anyInt(), anyInt())).thenReturn(THUMBNAIL_DATA);
+		when(encryptionService.encrypt(any())).then(a -> a.getArgument(0));
+		when(blobStore.put(any(byte[].class))).thenReturn("key2");
+		// when
+		thumbnailService.processPendingJobs();
+		// then
+		assertAll(
+				() -> verify(imageConverter).scale(LARGE_IMAGE_DATA, 128, 128),
+				() -> verify(imageConverter).scale(LARGE_IMAGE_DATA, 512, 512),
+				() -> verify(variantRepository, times(2)).save(savedVariant.capture()),
+				() -> assertEquals(List.of(128, 512), savedVariant.getAllValues().stream().map(ImageVariant::getWidth).toList()),
+				() -> assertEquals("key2", savedVariant.getValue().getBlobKey()),
+				() -> assertEquals(ThumbnailJob.Status.DONE, job.getStatus()),
+				() -> verify(jobRepository).save(job)
+		);
+	}
+
+	@Test
+	void shouldProcessSkipThumbnails_whenImageWithinSize() {
+		// given
+		ThumbnailJob job = givenPendingJob(SMALL_IMAGE_DATA);
+		// when
+		thumbnailService.processPendingJobs();
+		// then
+		assertAll(
+				() -> verify(imageConverter, never()).scale(any(), anyInt(), anyInt()),
+				() -> verify(variantRepository, never()).save(any()),
+				() -> assertEquals(ThumbnailJob.Status.DONE, job.getStatus())
+		);
+	}
+
+	@Test
+	void shouldProcessRetryLater_whenConversionFails() {
+		// given
+		ThumbnailJob job = givenPendingJob(LARGE_IMAGE_DATA);
+		when(imageConverter.scale(any(), anyInt(), anyInt())).thenThrow(new IllegalStateException("conversion failed"));
+		// when
+		thumbnailService.processPendingJobs();
+		// then
+		assertAll(
+				() -> assertEquals(ThumbnailJob.Status.PENDING, job.getStatus()),
+				() -> assertEquals(1, job.getAttempts()),
+				() -> assertEquals("conversion failed", job.getLastError()),
+				() -> assertTrue(job.getNextAttemptAt().isAfter(Instant.now().plusSeconds(30))),
+				() -> verify(jobRepository).save(job)
+		);
+	}
+
+	@Test
+	void shouldProcessFail_whenMaxAttemptsReached() {
+		// given
+		ThumbnailJob job = givenPendingJob(LARGE_IMAGE_DATA);
+		job.setAttempts(1);
+		when(imageConverter.scale(any(), anyInt(), anyInt())).thenThrow(new IllegalStateException("conversion failed"));
+		// when
+		thumbnailService.processPendingJobs();
+		// then
+		assertAll(
+				() -> assertEquals(ThumbnailJob.Status.FAILED, job.getStatus()),
+				() -> assertEquals(2, job.getAttempts())
+		);
+	}
+
+	@Test
+	void shouldFindThumbnail_whenStandardSize() {
+		// given
+		when(variantRepository.findByImageNameAndWidthAndHeight(any(), anyInt(), anyInt()))
+				.thenReturn(Optional.of(ImageVariant.builder().blobKey("key2").build()));
+		when(blobStore.get(any())).thenReturn(THUMBNAIL_DATA);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		// when
+		Optional<byte[]> actual = thumbnailService.findThumbnail("img.jpg", 128, 128);
+		Optional<byte[]> nonStandard = thumbnailService.findThumbnail("img.jpg", 128, 100);
+		// then
+		assertAll(
+				() -> assertArrayEquals(THUMBNAIL_DATA, actual.orElseThrow()),
+				() -> assertTrue(nonStandard.isEmpty()),
+				() -> verify(variantRepository).findByImageNameAndWidthAndHeight("img.jpg", 128, 128)
+		);
+	}
+
+	private ThumbnailJob givenPendingJob(byte[] imageData) {
+		ThumbnailJob job = ThumbnailJob.builder()
+				.imageName("img.jpg")
+				.status(ThumbnailJob.Status.PENDING)
+				.nextAttemptAt(Instant.now())
+				.build();
+		when(jobRepository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(any(), any(), any()))
+				.thenReturn(List.of(job))
+				.thenReturn(List.of());
+		when(imageRepository.findByName("img.jpg")).thenReturn(Optional.of(Image.builder().blobKey("key1").build()));
+		when(blobStore.get("key1")).thenReturn(imageData);
+		when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+		return job;
+	}
+
+}
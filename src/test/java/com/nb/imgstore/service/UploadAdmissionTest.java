@@ -0,0 +1,144 @@
+package com.nb.imgstore.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import com.nb.imgstore.exception.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class UploadAdmissionTest {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void shouldAdmitRelease_whenPermitClosed() {
+		// given
+		UploadAdmission uploadAdmission = newUploadAdmission(1, 0, Duration.ZERO);
+		// when
+		try (UploadAdmission.Permit permit = uploadAdmission.admit(1024)) {
+			assertAll(
+					() -> assertEquals(1, meterRegistry.get("imgstore.upload.admission.active").gauge().value()),
+					() -> assertEquals(1024, meterRegistry.get("imgstore.upload.admission.bytes").gauge().value())
+			);
+		}
+		// then
+		assertAll(
+				() -> assertNotNull(uploadAdmission.admit(1024)),
+				() -> assertEquals(2, meterRegistry.timer("imgstore.upload.admission.wait").count())
+		);
+	}
+
+	@Test
+	void shouldAdmitReject_whenQueueIsFull() {
+		// given
+		UploadAdmission uploadAdmission = newUploadAdmission(1, 0, Duration.ofSeconds(5));
+		uploadAdmission.admit(1024);
+		// when
+		ServiceUnavailableException ex = assertThrows(ServiceUnavailableException.class, () -> uploadAdmission.admit(1024));
+		// then
+		assertAll(
+				() -> assertEquals("Upload queue is full", ex.getMessage()),
+				() -> assertEquals(3, ex.getRetryAfterSeconds()),
+				() -> assertEquals(1, meterRegistry.counter("imgstore.upload.admission.rejected", "reason", "queue-full").count())
+		);
+	}
+
+	@Test
+	void shouldAdmitRejectOverMaxQueueLength_whenBurst() throws Exception {
+		// given
+		UploadAdmission uploadAdmission = newUploadAdmission(1, 2, Duration.ofSeconds(5));
+		uploadAdmission.admit(1024);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			// when
+			for (int i = 0; i < 8; i++) {
+				executor.execute(() -> {
+					try {
+						start.await();
+						uploadAdmission.admit(1024);
+					} catch (InterruptedException | ServiceUnavailableException | IllegalStateException e) {
+						// rejected, or interrupted by the shutdown
+					}
+				});
+			}
+			start.countDown();
+			Counter rejected = meterRegistry.counter("imgstore.upload.admission.rejected", "reason", "queue-full");
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (rejected.count() < 6 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			// then
+			assertAll(
+					() -> assertEquals(6, rejected.count()),
+					() -> assertEquals(2, meterRegistry.get("imgstore.upload.admission.queued").gauge().value())
+			);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void shouldAdmitReject_whenBudgetExhaustedUntilTimeout() {
+		// given
+		UploadAdmission uploadAdmission = newUploadAdmission(4, 10, Duration.ofMillis(100));
+		uploadAdmission.admit(DataSize.ofKilobytes(3).toBytes());
+		// when
+		ServiceUnavailableException ex = assertThrows(ServiceUnavailableException.class,
+				() -> uploadAdmission.admit(DataSize.ofKilobytes(2).toBytes()));
+		// then
+		assertAll(
+				() -> assertEquals("Timed out waiting for upload admission", ex.getMessage()),
+				() -> assertEquals(1, meterRegistry.counter("imgstore.upload.admission.rejected", "reason", "timeout").count()),
+				() -> assertEquals(0, meterRegistry.get("imgstore.upload.admission.queued").gauge().value()),
+				() -> assertEquals(1, meterRegistry.get("imgstore.upload.admission.active").gauge().value())
+		);
+	}
+
+	@Test
+	void shouldAdmitQueuedUpload_whenPermitClosed() throws Exception {
+		// given
+		UploadAdmission uploadAdmission = newUploadAdmission(1, 10, Duration.ofSeconds(5));
+		UploadAdmission.Permit running = uploadAdmission.admit(-1);
+		CompletableFuture<UploadAdmission.Permit> queued = CompletableFuture.supplyAsync(() -> uploadAdmission.admit(1024));
+		while (meterRegistry.get("imgstore.upload.admission.queued").gauge().value() < 1) {
+			Thread.sleep(10);
+		}
+		// when
+		running.close();
+		// then
+		assertNotNull(queued.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void shouldAdmitLargerUploadThanBudget_whenIdle() {
+		// given
+		UploadAdmission uploadAdmission = newUploadAdmission(1, 0, Duration.ZERO);
+		// when
+		UploadAdmission.Permit permit = uploadAdmission.admit(DataSize.ofMegabytes(1).toBytes());
+		// then
+		assertAll(
+				() -> assertNotNull(permit),
+				() -> assertEquals(DataSize.ofKilobytes(4).toBytes(), meterRegistry.get("imgstore.upload.admission.bytes").gauge().value())
+		);
+	}
+
+	private UploadAdmission newUploadAdmission(int maxConcurrent, int maxQueueLength, Duration queueTimeout) {
+		return new UploadAdmission(maxConcurrent, DataSize.ofKilobytes(4), DataSize.ofKilobytes(4), maxQueueLength,
+				queueTimeout, Duration.ofSeconds(3), meterRegistry);
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.nb.imgstore.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.nb.imgstore.exception.InvalidImageException;
+
+class UploadExecutorTest {
+	private final UploadExecutor uploadExecutor = new UploadExecutor(8, 2);
+
+	@AfterEach
+	void tearDown() {
+		uploadExecutor.shutdown();
+	}
+
+	@Test
+	void shouldInvokeAllKeepOrderAndPerRequestLimit() {
+		// given
+		List<Integer> items = IntStream.range(0, 20).boxed().toList();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		// when
+		List<Integer> actual = uploadExecutor.invokeAll(items, i -> {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			sleep(5 * (i % 3));
+			running.decrementAndGet();
+			return i * 10;
+		});
+		// then
+		assertAll(
+				() -> assertEquals(items.stream().map(i -> i * 10).toList(), actual),
+				() -> assertTrue(maxRunning.get() <= 2, "max running: " + maxRunning.get())
+		);
+	}
+
+	@Test
+	void shouldInvokeAllRethrowFailure_afterAllCompleted() {
+		// given
+		AtomicInteger completed = new AtomicInteger();
+		// when
+		InvalidImageException ex = assertThrows(InvalidImageException.class, () -> uploadExecutor.invokeAll(List.of(1, 2, 3), i -> {
+			if (i == 1) {
+				throw new InvalidImageException("Malformed image: " + i);
+			}
+			sleep(50);
+			return completed.incrementAndGet();
+		}));
+		// then
+		assertAll(
+				() -> assertEquals("Malformed image: 1", ex.getMessage()),
+				() -> assertEquals(2, completed.get())
+		);
+	}
+
+	@Test
+	void shouldInvokeAllDiscardSucceededResults_whenAnItemFails() {
+		// given
+		List<List<Integer>> discarded = new ArrayList<>();
+		// when
+		assertThrows(InvalidImageException.class, () -> uploadExecutor.invokeAll(List.of(1, 2, 3), i -> {
+			if (i == 2) {
+				throw new InvalidImageException("Malformed image: " + i);
+			}
+			return i * 10;
+		}, discarded::add));
+		// then
+		assertEquals(List.of(List.of(10, 30)), discarded);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+package com.nb.imgstore.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(MockitoExtension.class)
+class VariantCacheTest {
+	private static final byte[] CONTENT = { 1, 2, 3, 4 };
+
+	@TempDir
+	private Path root;
+
+	@Mock
+	private EncryptionService encryptionService;
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@BeforeEach
+	void setUp() {
+		lenient().when(encryptionService.encrypt(any())).then(a -> a.getArgument(0));
+		lenient().when(encryptionService.decrypt(any())).then(a -> a.getArgument(0));
+	}
+
+	@Test
+	void shouldGetGenerateContentOnlyOnce() {
+		// given
+		VariantCache variantCache = new VariantCache(root, DataSize.ofBytes(100), encryptionService, meterRegistry);
+		AtomicInteger generated = new AtomicInteger();
+		// when
+		byte[] actual1 = variantCache.get("img.jpg@10x10", () -> {
+			generated.incrementAndGet();
+			return CONTENT;
+		});
+		byte[] actual2 = variantCache.get("img.jpg@10x10", () -> {
+			generated.incrementAndGet();
+			return CONTENT;
+		});
+		// then
+		assertAll(
+				() -> assertArrayEquals(CONTENT, actual1),
+				() -> assertArrayEquals(CONTENT, actual2),
+				() -> assertEquals(1, generated.get()),
+				() -> assertEquals(1, meterRegistry.get("imgstore.variant-cache.gets").tag("result", "hit").counter().count()),
+				() -> assertEquals(CONTENT.length, meterRegistry.get("imgstore.variant-cache.size").gauge().value())
+		);
+	}
+
+	@Test
+	void shouldGetGenerateContentOnlyOnce_whenRequestedConcurrently() throws Exception {
+		// given
+		VariantCache variantCache = new VariantCache(root, DataSize.ofBytes(100), encryptionService, meterRegistry);
+		AtomicInteger generated = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		// when
+		List<Future<byte[]>> results = new ArrayList<>();
+		try {
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(() -> variantCache.get("img.jpg@10x10", () -> {
+					generated.incrementAndGet();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return CONTENT;
+				})));
+			}
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<byte[]> result : results) {
+				assertArrayEquals(CONTENT, result.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		// then
+		assertEquals(1, generated.get());
+	}
+
+	@Test
+	void shouldGetEvictLeastRecentlyUsed_whenMaxSizeExceeded() {
+		// given
+		VariantCache variantCache = new VariantCache(root, DataSize.ofBytes(8), encryptionService, meterRegistry);
+		AtomicInteger generated = new AtomicInteger();
+		variantCache.get("a", () -> CONTENT);
+		variantCache.get("b", () -> CONTENT);
+		variantCache.get("a", () -> CONTENT);
+		// when
+		variantCache.get("c", () -> CONTENT);
+		// then
+		variantCache.get("a", () -> {
+			generated.incrementAndGet();
+			return CONTENT;
+		});
+		variantCache.get("b", () -> {
+			generated.incrementAndGet();
+			return CONTENT;
+		});
+		assertAll(
+				() -> assertEquals(1, generated.get()),
+				() -> assertEquals(2, meterRegistry.get("imgstore.variant-cache.evictions").counter().count()),
+				() -> assertEquals(8, variantCache.size())
+		);
+	}
+
+	@Test
+	void shouldKeepEntries_whenRestarted() {
+		// given
+		new VariantCache(root, DataSize.ofBytes(100), encryptionService, meterRegistry).get("a", () -> CONTENT);
+		// when
+		VariantCache restarted = new VariantCache(root, DataSize.ofBytes(100), encryptionService, new SimpleMeterRegistry());
+		byte[] actual = restarted.get("a", () -> {
+			throw new IllegalStateException("should be cached");
+		});
+		// then
+		assertArrayEquals(CONTENT, actual);
+	}
+
+	@Test
+	void shouldGetNotCacheFailure() {
+		// given
+		VariantCache variantCache = new VariantCache(root, DataSize.ofBytes(100), encryptionService, meterRegistry);
+		// when
+		assertThrows(IllegalStateException.class, () -> variantCache.get("a", () -> {
+			throw new IllegalStateException("conversion failed");
+		}));
+		byte[] actual = variantCache.get("a", () -> CONTENT);
+		// then
+		assertAll(
+				() -> assertArrayEquals(CONTENT, actual),
+				() -> assertEquals(CONTENT.length, variantCache.size())
+		);
+	}
+
+}
@@ -0,0 +1,91 @@
+package com.nb.imgstore.util;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class StageTraceTest {
+
+	@Test
+	void shouldAddUpDurationsByStage() {
+		// given
+		StageTrace trace = new StageTrace();
+		// when
+		trace.add("db", 1_000_000);
+		trace.add("decrypt", 2_500_000);
+		trace.add("db", 500_000);
+		// then
+		String actual = trace.toHeaderValue();
+		assertTrue(actual.matches("db;dur=1\\.5, decrypt;dur=2\\.5, total;dur=\\d+\\.\\d"), actual);
+	}
+
+	@Test
+	void shouldDropStages_whenMaxStagesExceeded() {
+		// given
+		StageTrace trace = new StageTrace();
+		// when
+		for (int i = 0; i < 20; i++) {
+			trace.add("stage" + i, 1_000_000);
+		}
+		// then
+		String actual = trace.toHeaderValue();
+		assertAll(
+				() -> assertTrue(actual.contains("stage15;dur=1.0"), actual),
+				() -> assertFalse(actual.contains("stage16"), actual)
+		);
+	}
+
+	@Test
+	void shouldRecordIntoBoundTrace_onlyWhileBound() {
+		// given
+		StageTrace trace = new StageTrace();
+		// when
+		StageTrace.record("db", 1_000_000);
+		StageTrace.callWith(trace, () -> {
+			StageTrace.record("decrypt", 1_000_000);
+			return null;
+		});
+		StageTrace.record("zip", 1_000_000);
+		// then
+		String actual = trace.toHeaderValue();
+		assertAll(
+				() -> assertTrue(actual.startsWith("decrypt;dur=1.0, total;dur="), actual),
+				() -> assertNull(StageTrace.current())
+		);
+	}
+
+	@Test
+	void shouldCallWithTrace_onAnotherThread() throws Exception {
+		// given
+		StageTrace trace = new StageTrace();
+		// when
+		StageTrace actual = CompletableFuture.supplyAsync(() -> StageTrace.callWith(trace, StageTrace::current)).get();
+		// then
+		assertSame(trace, actual);
+	}
+
+	@Test
+	void shouldBindReturnPreviousTrace() {
+		// given
+		StageTrace outer = new StageTrace();
+		StageTrace inner = new StageTrace();
+		// when
+		StageTrace previous1 = StageTrace.bind(outer);
+		StageTrace previous2 = StageTrace.bind(inner);
+		StageTrace previous3 = StageTrace.bind(null);
+		// then
+		assertAll(
+				() -> assertNull(previous1),
+				() -> assertSame(outer, previous2),
+				() -> assertSame(inner, previous3),
+				() -> assertNull(StageTrace.current())
+		);
+	}
+
+}